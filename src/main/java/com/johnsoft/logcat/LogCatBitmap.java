@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of rows, the roaring bitmap way: the rows are split by their high 16 bits,
+ * and the low 16 bits of the rows sharing them are kept in a container, a sorted array of
+ * chars while there are at most 4096 of them, and a bitmap of 65536 bits beyond that, so
+ * a container takes at most 8 KB and a sparse set takes about 2 bytes a row. Sets are
+ * intersected and joined container by container, the containers of the same high bits only.
+ * <p/>
+ * A set is built by adding the rows in increasing order, and not changed by the operations,
+ * which return new sets. The new sets share the containers of the sets they are made from,
+ * so a set should not be added to while the sets made from it are used.
+ */
+public final class LogCatBitmap {
+    /** an array container of more values takes more memory than a bitmap container */
+    private static final int MAX_ARRAY_SIZE = 4096;
+    private static final int BITMAP_WORDS = 65536 / 64;
+    /** the bytes of a container besides its values */
+    private static final int CONTAINER_OVERHEAD = 32;
+
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    public LogCatBitmap() {
+        this(4);
+    }
+
+    private LogCatBitmap(int capacity) {
+        keys = new char[capacity];
+        containers = new Container[capacity];
+    }
+
+    /**
+     * Add a row greater than all rows added before.
+     */
+    public void add(int row) {
+        final char key = (char) (row >>> 16);
+        if (size == 0 || keys[size - 1] != key) {
+            append(key, new ArrayContainer(4));
+        }
+        containers[size - 1] = containers[size - 1].add((char) row);
+    }
+
+    private void append(char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        ++size;
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; ++i) {
+            cardinality += containers[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return about the bytes of the heap the set takes
+     */
+    public long getBytes() {
+        long bytes = CONTAINER_OVERHEAD + keys.length * 6L;
+        for (int i = 0; i < size; ++i) {
+            bytes += CONTAINER_OVERHEAD + containers[i].getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the rows of the set in increasing order
+     */
+    public int[] toArray() {
+        final int[] rows = new int[getCardinality()];
+        int count = 0;
+        for (int i = 0; i < size; ++i) {
+            count = containers[i].fill(rows, count, keys[i] << 16);
+        }
+        return rows;
+    }
+
+    /**
+     * @return the rows of both sets
+     */
+    public LogCatBitmap and(LogCatBitmap other) {
+        final LogCatBitmap result = new LogCatBitmap(Math.max(1, Math.min(size, other.size)));
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                ++i;
+            } else if (keys[i] > other.keys[j]) {
+                ++j;
+            } else {
+                final Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality > 0) {
+                    result.append(keys[i], container);
+                }
+                ++i;
+                ++j;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the rows of either set
+     */
+    public LogCatBitmap or(LogCatBitmap other) {
+        final LogCatBitmap result = new LogCatBitmap(Math.max(1, size + other.size));
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], containers[i]);
+                ++i;
+            } else if (i >= size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j]);
+                ++j;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                ++i;
+                ++j;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The low 16 bits of the rows sharing the high bits.
+     */
+    private abstract static class Container {
+        int cardinality;
+
+        /**
+         * @return the container with the value added, which is greater than all values
+         */
+        abstract Container add(char value);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract boolean contains(char value);
+
+        abstract long getBytes();
+
+        /**
+         * Put the values with the high bits into the array from the offset.
+         * @return the offset after the values
+         */
+        abstract int fill(int[] rows, int offset, int high);
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values;
+
+        ArrayContainer(int capacity) {
+            values = new char[capacity];
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            if (cardinality == MAX_ARRAY_SIZE) {
+                return toBitmap().add(value);
+            }
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, cardinality * 2));
+            }
+            values[cardinality++] = value;
+            return this;
+        }
+
+        BitmapContainer toBitmap() {
+            final BitmapContainer bitmap = new BitmapContainer(new long[BITMAP_WORDS], 0);
+            for (int i = 0; i < cardinality; ++i) {
+                bitmap.set(values[i]);
+            }
+            return bitmap;
+        }
+
+        @Override
+        Container and(Container other) {
+            final char[] result = new char[Math.min(cardinality, other.cardinality)];
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        ++i;
+                    } else if (values[i] > array.values[j]) {
+                        ++j;
+                    } else {
+                        result[count++] = values[i];
+                        ++i;
+                        ++j;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; ++i) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            final ArrayContainer array = (ArrayContainer) other;
+            if (cardinality + array.cardinality > MAX_ARRAY_SIZE) {
+                return toBitmap().or(other);
+            }
+            final char[] result = new char[cardinality + array.cardinality];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j >= array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    result[count++] = values[i++];
+                } else if (i >= cardinality || values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i];
+                    ++i;
+                    ++j;
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        long getBytes() {
+            return values.length * 2L;
+        }
+
+        @Override
+        int fill(int[] rows, int offset, int high) {
+            for (int i = 0; i < cardinality; ++i) {
+                rows[offset++] = high | values[i];
+            }
+            return offset;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        void set(char value) {
+            final long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0L) {
+                words[value >>> 6] |= bit;
+                ++cardinality;
+            }
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            final long[] otherWords = ((BitmapContainer) other).words;
+            final long[] result = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; ++i) {
+                result[i] = words[i] & otherWords[i];
+                count += Long.bitCount(result[i]);
+            }
+            final BitmapContainer bitmap = new BitmapContainer(result, count);
+            return count > MAX_ARRAY_SIZE ? bitmap : bitmap.toArrayContainer();
+        }
+
+        @Override
+        Container or(Container other) {
+            final BitmapContainer result = new BitmapContainer(words.clone(), cardinality);
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; ++i) {
+                    result.set(array.values[i]);
+                }
+                return result;
+            }
+            final long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; ++i) {
+                result.words[i] |= otherWords[i];
+                count += Long.bitCount(result.words[i]);
+            }
+            result.cardinality = count;
+            return result;
+        }
+
+        ArrayContainer toArrayContainer() {
+            final char[] values = new char[cardinality];
+            fill(values);
+            return new ArrayContainer(values, cardinality);
+        }
+
+        private void fill(char[] values) {
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; ++i) {
+                long word = words[i];
+                while (word != 0L) {
+                    values[count++] = (char) (i << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1L;
+                }
+            }
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0L;
+        }
+
+        @Override
+        long getBytes() {
+            return BITMAP_WORDS * 8L;
+        }
+
+        @Override
+        int fill(int[] rows, int offset, int high) {
+            for (int i = 0; i < BITMAP_WORDS; ++i) {
+                long word = words[i];
+                while (word != 0L) {
+                    rows[offset++] = high | i << 6 | Long.numberOfTrailingZeros(word);
+                    word &= word - 1L;
+                }
+            }
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Parse a gzip or zip compressed log file without unpacking it to the disk. The file is
+ * inflated on a reading thread while the lines are parsed, see {@link LogCatStreamParser}.
+ * <p/>
+ * The entries of a zip file are inflated and parsed in parallel, each with a parser of its own
+ * as each is a log of its own, and handed to the listener in the order of the zip file.
+ * Each entry has a bounded queue of parsed batches, so the entries ahead of the one being
+ * handed wait for it instead of piling up. The members of a gzip file follow one another
+ * in one stream, where a member starts is only known after inflating the member before,
+ * so they are inflated in order.
+ */
+public final class LogCatCompressedParser {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** at most this many batches of an entry wait for the listener */
+    private static final int QUEUE_CAPACITY = 8;
+    private static final List<LogCatMessage> END = new ArrayList<>();
+
+    private final File file;
+    private final LogCatMessageParser parser;
+
+    public LogCatCompressedParser(File file, LogCatMessageParser parser) {
+        this.file = file;
+        this.parser = parser;
+    }
+
+    /**
+     * @return true if the file starts like a gzip or zip file
+     */
+    public static boolean isCompressed(File file) {
+        return isGzip(file) || isZip(file);
+    }
+
+    static boolean isGzip(File file) {
+        final byte[] magic = readMagic(file);
+        return magic != null && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B;
+    }
+
+    static boolean isZip(File file) {
+        final byte[] magic = readMagic(file);
+        return magic != null && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4;
+    }
+
+    private static byte[] readMagic(File file) {
+        try (InputStream input = new FileInputStream(file)) {
+            final byte[] magic = new byte[4];
+            int n = 0;
+            while (n < magic.length) {
+                final int count = input.read(magic, n, magic.length - n);
+                if (count < 0) {
+                    return null;
+                }
+                n += count;
+            }
+            return magic;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse on the calling thread until the end of the file. The bytes passed to the listener
+     * are the compressed bytes.
+     */
+    public void parse(LogCatMessageParser.ParseListener listener) throws IOException {
+        if (isZip(file)) {
+            parseZip(listener);
+        } else {
+            parseGzip(listener);
+        }
+    }
+
+    private void parseGzip(final LogCatMessageParser.ParseListener listener) throws IOException {
+        final long totalBytes = file.length();
+        final CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+        final InputStream input;
+        try {
+            input = new GZIPInputStream(counter, BUFFER_SIZE);
+        } catch (IOException e) {
+            counter.close();
+            throw e;
+        }
+        new LogCatStreamParser(input, parser).parse(new LogCatMessageParser.ParseListener() {
+            @Override
+            public void onMessagesParsed(List<LogCatMessage> messages, long parsedBytes, long total) {
+                listener.onMessagesParsed(messages, counter.count, totalBytes);
+            }
+        });
+    }
+
+    /**
+     * The parsed batches of an entry, filled by a worker and drained by the listener.
+     */
+    private static final class Entry {
+        final ZipEntry zipEntry;
+        final BlockingQueue<List<LogCatMessage>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final LogCatMessageParser parser;
+        volatile Throwable error;
+
+        Entry(ZipEntry zipEntry, LogCatMessageParser parser) {
+            this.zipEntry = zipEntry;
+            this.parser = parser;
+        }
+    }
+
+    private void parseZip(LogCatMessageParser.ParseListener listener) throws IOException {
+        final ZipFile zipFile = new ZipFile(file);
+        final List<Entry> entries = new ArrayList<>();
+        long totalBytes = 0L;
+        for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); ) {
+            final ZipEntry zipEntry = e.nextElement();
+            if (!zipEntry.isDirectory()) {
+                entries.add(new Entry(zipEntry, parser.newInstance()));
+                totalBytes += Math.max(0L, zipEntry.getCompressedSize());
+            }
+        }
+        // each worker also has a reading thread inflating its entry
+        final int threads = Math.max(1, Math.min(entries.size(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "Parse-Zip-Entry-Thread-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            // submitted in order, so the entry being handed is always taken by a worker
+            for (final Entry entry : entries) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        parseEntry(zipFile, entry);
+                    }
+                });
+            }
+            long parsedBytes = 0L;
+            for (Entry entry : entries) {
+                List<LogCatMessage> messages;
+                while ((messages = entry.queue.take()) != END) {
+                    listener.onMessagesParsed(messages, parsedBytes, totalBytes);
+                }
+                final Throwable t = entry.error;
+                if (t instanceof IOException) {
+                    throw (IOException) t;
+                } else if (t instanceof RuntimeException) {
+                    throw (RuntimeException) t;
+                } else if (t instanceof Error) {
+                    throw (Error) t;
+                }
+                // the entry has been parsed before its END was queued
+                parser.addStats(entry.parser);
+                parsedBytes += Math.max(0L, entry.zipEntry.getCompressedSize());
+                listener.onMessagesParsed(new ArrayList<LogCatMessage>(), parsedBytes, totalBytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("parsing interrupted");
+        } finally {
+            executor.shutdownNow();
+            zipFile.close();
+        }
+    }
+
+    private void parseEntry(ZipFile zipFile, final Entry entry) {
+        try {
+            final InputStream input = zipFile.getInputStream(entry.zipEntry);
+            new LogCatStreamParser(input, entry.parser)
+                    .parse(new LogCatMessageParser.ParseListener() {
+                        @Override
+                        public void onMessagesParsed(List<LogCatMessage> messages, long parsedBytes, long totalBytes) {
+                            if (messages.isEmpty()) {
+                                return;
+                            }
+                            try {
+                                // blocks while the entries before are being handed
+                                entry.queue.put(messages);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    });
+        } catch (Throwable t) {
+            entry.error = t;
+        }
+        try {
+            entry.queue.put(END);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Count the bytes read, for the progress of parsing.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                ++count;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.util.Arrays;
+
+/**
+ * Give each distinct string an id, counting from 0, so a column of a {@link LogCatStore}
+ * keeps the id of a row instead of a copy of the string, and a parser hands out one
+ * instance of a tag seen on many lines instead of a substring per line.
+ * <p/>
+ * A part of a line can be looked up without taking a substring of it, so a string
+ * is created only the first time it's seen. The table is open addressing with
+ * linear probing over the ids, which keeps the hash of each string.
+ * <p/>
+ * One thread interns while any thread gets the strings of the ids it has seen.
+ */
+public final class LogCatDictionary {
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** at most this many strings, or no limit if it's 0 */
+    private final int maxSize;
+    /** id + 1 of the string in each slot, 0 for an empty slot, only used by the interning thread */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private volatile String[] values = new String[INITIAL_CAPACITY];
+    private volatile int size;
+
+    private long lookupCount;
+    private long hitCount;
+
+    public LogCatDictionary() {
+        this(0);
+    }
+
+    /**
+     * @param maxSize at most this many strings are interned, then {@link #intern} gives -1
+     *                for a string not interned yet, or no limit if it's 0
+     */
+    public LogCatDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the id of the string, a new one if it's not interned yet, or -1 if the
+     *          dictionary is full
+     */
+    public int intern(String value) {
+        return intern(value.hashCode(), value, 0, value.length(), true);
+    }
+
+    /**
+     * Same as {@link #intern(String)} for {@code text.substring(start, end)}, but the
+     * substring is only created if it's not interned yet.
+     */
+    public int intern(String text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return intern(hash, text, start, end, start == 0 && end == text.length());
+    }
+
+    private int intern(int hash, String text, int start, int end, boolean whole) {
+        ++lookupCount;
+        final int[] table = slots;
+        final int mask = table.length - 1;
+        final String[] array = values;
+        final int length = end - start;
+        int index = mix(hash) & mask;
+        int slot;
+        while ((slot = table[index]) != 0) {
+            final int id = slot - 1;
+            if (hashes[id] == hash) {
+                final String value = array[id];
+                if (value.length() == length && value.regionMatches(0, text, start, length)) {
+                    ++hitCount;
+                    return id;
+                }
+            }
+            index = (index + 1) & mask;
+        }
+        final int n = size;
+        if (maxSize > 0 && n >= maxSize) {
+            return -1;
+        }
+        String[] newArray = array;
+        if (n >= newArray.length) {
+            newArray = Arrays.copyOf(newArray, newArray.length * 2);
+            hashes = Arrays.copyOf(hashes, newArray.length);
+        }
+        newArray[n] = whole ? text : text.substring(start, end);
+        hashes[n] = hash;
+        table[index] = n + 1;
+        values = newArray;
+        size = n + 1;
+        // keep the table at most half full
+        if ((n + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return n;
+    }
+
+    private void rehash(int capacity) {
+        final int[] table = new int[capacity];
+        final int mask = capacity - 1;
+        final int n = size;
+        for (int id = 0; id < n; ++id) {
+            int index = mix(hashes[id]) & mask;
+            while (table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            table[index] = id + 1;
+        }
+        slots = table;
+    }
+
+    private static int mix(int hash) {
+        // spread the bits of the String hash code, which are poor in the low bits for short strings
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @param id returned by {@link #intern(String)}
+     */
+    public String get(int id) {
+        return values[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return how many times {@link #intern} was called, should call it from the interning thread
+     */
+    public long getLookupCount() {
+        return lookupCount;
+    }
+
+    /**
+     * @return how many times {@link #intern} found the string interned,
+     *          should call it from the interning thread
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the hit count divided by the lookup count, or 0 before any lookup
+     */
+    public double getHitRatio() {
+        return lookupCount == 0L ? 0.0 : (double) hitCount / lookupCount;
+    }
+
+    /**
+     * Add the counts of another dictionary, which interned a part of the same lines.
+     */
+    void addCounts(LogCatDictionary other) {
+        lookupCount += other.lookupCount;
+        hitCount += other.hitCount;
+    }
+}
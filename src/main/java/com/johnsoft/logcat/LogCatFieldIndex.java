@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Bitmaps of the messages of a store by the value of each header field a filter compares
+ * for equality: a bitmap of each level, pid, tid and tag, see {@link LogCatBitmap}. The level,
+ * pid, tid and tag of a filter select the messages by intersecting and joining the bitmaps,
+ * and so do the filters of a query, so only the messages selected are checked by the rest
+ * of the settings, like the text. A query of such settings only needs no check at all, see
+ * {@link #isExact(List)}.
+ * <p/>
+ * A message is kept by its first row, the rows after it share its header. A tag is matched
+ * once for each tag of the dictionary of the store, and the bitmaps of the tags matching are
+ * joined. A pid or tid which is not a number is kept in a bitmap of its own, which is what
+ * a pid or tid of a filter which is not a number selects.
+ * <p/>
+ * The index is updated with the rows appended since, and used, by one thread.
+ */
+public final class LogCatFieldIndex {
+    private static final int LEVEL_COUNT = LogLevel.values().length;
+
+    private final LogCatBitmap[] levels = new LogCatBitmap[LEVEL_COUNT];
+    private final HashMap<Integer, LogCatBitmap> pids = new HashMap<>();
+    private final HashMap<Integer, LogCatBitmap> tids = new HashMap<>();
+    /** the messages of the pids and tids which are not numbers */
+    private final LogCatBitmap otherPids = new LogCatBitmap();
+    private final LogCatBitmap otherTids = new LogCatBitmap();
+    /** by the id of the tag in the dictionary of the store */
+    private final ArrayList<LogCatBitmap> tags = new ArrayList<>();
+    private int indexedRows;
+    private int messageCount;
+    private volatile String summary = "";
+
+    public LogCatFieldIndex() {
+        for (int i = 0; i < LEVEL_COUNT; ++i) {
+            levels[i] = new LogCatBitmap();
+        }
+    }
+
+    /**
+     * @return the rows below it are indexed
+     */
+    public int getIndexedRows() {
+        return indexedRows;
+    }
+
+    /**
+     * @return the messages indexed
+     */
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Index the messages starting in the rows appended to the store since the last update.
+     * @param size a size returned by {@link LogCatStore#size()}, the rows below it are indexed
+     */
+    public void update(LogCatStore store, int size) {
+        if (size <= indexedRows) {
+            return;
+        }
+        // the next message mostly has the pid, tid and tag of the message before
+        int lastPid = -1;
+        int lastTid = -1;
+        int lastTag = -1;
+        LogCatBitmap pidRows = otherPids;
+        LogCatBitmap tidRows = otherTids;
+        LogCatBitmap tagRows = null;
+        for (int row = indexedRows; row < size; ++row) {
+            if (store.isContinuation(row)) {
+                continue;
+            }
+            ++messageCount;
+            levels[store.getLogLevelOrdinal(row)].add(row);
+            final int pid = store.getPidValue(row);
+            if (pid != lastPid) {
+                lastPid = pid;
+                pidRows = getOrCreate(pids, pid, otherPids);
+            }
+            pidRows.add(row);
+            final int tid = store.getTidValue(row);
+            if (tid != lastTid) {
+                lastTid = tid;
+                tidRows = getOrCreate(tids, tid, otherTids);
+            }
+            tidRows.add(row);
+            final int tag = store.getTagId(row);
+            if (tag != lastTag) {
+                lastTag = tag;
+                while (tags.size() <= tag) {
+                    tags.add(new LogCatBitmap());
+                }
+                tagRows = tags.get(tag);
+            }
+            tagRows.add(row);
+        }
+        indexedRows = size;
+        summary = "Field index: " + messageCount + " messages, " + pids.size() + " pids, " + tids.size()
+                + " tids, " + tags.size() + " tags, " + (getBytes() >> 10) + " KB\n";
+    }
+
+    private static LogCatBitmap getOrCreate(HashMap<Integer, LogCatBitmap> map, int value, LogCatBitmap other) {
+        if (value < 0) {
+            return other;
+        }
+        LogCatBitmap rows = map.get(value);
+        if (rows == null) {
+            rows = new LogCatBitmap();
+            map.put(value, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * @return about the bytes of the heap the bitmaps take
+     */
+    private long getBytes() {
+        long bytes = otherPids.getBytes() + otherTids.getBytes();
+        for (LogCatBitmap rows : levels) {
+            bytes += rows.getBytes();
+        }
+        for (LogCatBitmap rows : pids.values()) {
+            bytes += rows.getBytes();
+        }
+        for (LogCatBitmap rows : tids.values()) {
+            bytes += rows.getBytes();
+        }
+        for (LogCatBitmap rows : tags) {
+            bytes += rows.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the messages, the bitmaps and the memory of the index as of the last update,
+     * may be called by any thread
+     */
+    public String describe() {
+        return summary;
+    }
+
+    /**
+     * @return the first rows of the messages below {@link #getIndexedRows()} which may match
+     * the query by the levels, pids, tids and tags of its filters
+     */
+    public LogCatBitmap select(LogCatStore store, List<LogCatFilter> filters, LogicalPredicate predicate) {
+        LogCatBitmap rows = null;
+        for (LogCatFilter f : filters) {
+            final LogCatBitmap selected = f.select(this, store);
+            if (rows == null) {
+                rows = selected;
+            } else if (predicate == LogicalPredicate.AND) {
+                rows = rows.and(selected);
+            } else {
+                rows = rows.or(selected);
+            }
+        }
+        return rows == null ? getLevelRows(0) : rows;
+    }
+
+    /**
+     * @return true if the messages selected for the query all match it, as its filters have
+     * no settings but the level, the pid, the tid and the tag, see {@link #select}
+     */
+    public static boolean isExact(List<LogCatFilter> filters) {
+        for (LogCatFilter f : filters) {
+            if (!f.isSelectedExactly()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the messages of the level or of a higher level
+     */
+    LogCatBitmap getLevelRows(int minOrdinal) {
+        LogCatBitmap rows = levels[minOrdinal];
+        for (int i = minOrdinal + 1; i < LEVEL_COUNT; ++i) {
+            rows = rows.or(levels[i]);
+        }
+        return rows;
+    }
+
+    /**
+     * @param value the pid, or -1 for the pids which are not numbers
+     */
+    LogCatBitmap getPidRows(int value) {
+        return getRows(pids, value, otherPids);
+    }
+
+    /**
+     * @param value the tid, or -1 for the tids which are not numbers
+     */
+    LogCatBitmap getTidRows(int value) {
+        return getRows(tids, value, otherTids);
+    }
+
+    private static LogCatBitmap getRows(HashMap<Integer, LogCatBitmap> map, int value, LogCatBitmap other) {
+        if (value < 0) {
+            return other;
+        }
+        final LogCatBitmap rows = map.get(value);
+        return rows == null ? new LogCatBitmap() : rows;
+    }
+
+    /**
+     * @return the tags of the dictionary below it have been seen
+     */
+    int getTagCount() {
+        return tags.size();
+    }
+
+    LogCatBitmap getTagRows(int id) {
+        return tags.get(id);
+    }
+}
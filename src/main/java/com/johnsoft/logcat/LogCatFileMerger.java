@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Merge several log files into one sequence of messages in time order, like the rotated
+ * files of {@code logcat -f file -r size -n count}. Each file is parsed on a thread of its own
+ * with a parser of its own, into a bounded queue of batches, and the messages are merged as
+ * they come by their timestamps, so at most a few batches of each file are held besides
+ * the merged result.
+ * <p/>
+ * The messages of one file keep their order, a message without a time, like a body line of
+ * {@code -v long}, stays after the message before it, and so do the lines of a message of
+ * several lines, see {@link LogCatMessage#isContinuation()}. Messages of the same time are taken
+ * from the files in the order they are given. Each message gets the name of its file as its
+ * source, see {@link LogCatMessage#getSource()}.
+ */
+public final class LogCatFileMerger {
+    /** at most this many batches of a file wait for the merge */
+    private static final int QUEUE_CAPACITY = 4;
+    private static final List<LogCatMessage> END = new ArrayList<>();
+    private static final long HALF_YEAR = LogCatTime.MILLIS_PER_YEAR / 2L;
+
+    private final List<File> files;
+    private final List<LogCatMessageParser> parsers;
+    private final LogCatMessageParser parser;
+
+    /**
+     * @param parser the prototype of the parsers, each file is parsed by a new instance
+     */
+    public LogCatFileMerger(List<File> files, LogCatMessageParser parser) {
+        this(files, Collections.nCopies(files.size(), parser), parser);
+    }
+
+    /**
+     * Merge files of different formats, like the files of {@link LogCatFormatDetector#detect(File)}.
+     * @param parsers the prototype of the parser of each file, in the order of the files
+     * @param parser the parser given the statistics of all files, see {@link LogCatMessageParser#getStats()}
+     */
+    public LogCatFileMerger(List<File> files, List<LogCatMessageParser> parsers, LogCatMessageParser parser) {
+        if (parsers.size() != files.size()) {
+            throw new IllegalArgumentException(parsers.size() + " parsers for " + files.size() + " files");
+        }
+        this.files = new ArrayList<>(files);
+        this.parsers = new ArrayList<>(parsers);
+        this.parser = parser;
+    }
+
+    /**
+     * @return the files of the directory which are not hidden, like the sidecar files of
+     * {@link LogCatIndexFile}, sorted by name
+     */
+    public static List<File> listLogFiles(File directory) {
+        final List<File> result = new ArrayList<>();
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return result;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isFile() && !child.isHidden() && !child.getName().startsWith(".")) {
+                result.add(child);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A file being parsed, and the message of it to be merged next.
+     */
+    private static final class Source {
+        final int index;
+        final File file;
+        final String name;
+        final BlockingQueue<List<LogCatMessage>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final LogCatMessageParser parser;
+        volatile long parsedBytes;
+        volatile Throwable error;
+
+        List<LogCatMessage> batch;
+        int position;
+        /** the timestamp of the head message, the time of the year counted from year 0 of the first file */
+        long key = -1L;
+        long year;
+        long lastTimeOfYear = -1L;
+
+        Source(int index, File file, LogCatMessageParser parser) {
+            this.index = index;
+            this.file = file;
+            this.name = file.getName();
+            this.parser = parser;
+        }
+
+        LogCatMessage head() {
+            return batch.get(position);
+        }
+
+        /**
+         * Take the next batch if the head is the last of the batch.
+         * @return false at the end of the file
+         */
+        boolean advance() throws InterruptedException {
+            ++position;
+            while (batch == null || position >= batch.size()) {
+                batch = queue.take();
+                position = 0;
+                if (batch == END) {
+                    return false;
+                }
+            }
+            updateKey(head().getTime());
+            return true;
+        }
+
+        /**
+         * Move the head to the year nearest to the time of the head of another file, the
+         * year of each file counts from there. A file starting in January is of the year
+         * after a file starting in December, like the rotated files of New Year's Eve.
+         */
+        void anchor(long referenceTimeOfYear) {
+            if (key < 0L || referenceTimeOfYear < 0L) {
+                return;
+            }
+            if (lastTimeOfYear < referenceTimeOfYear - HALF_YEAR) {
+                year = 1L;
+            } else if (lastTimeOfYear > referenceTimeOfYear + HALF_YEAR) {
+                year = -1L;
+            }
+            key = year * LogCatTime.MILLIS_PER_YEAR + lastTimeOfYear;
+        }
+
+        /**
+         * The same year inference as {@link LogCatStore}, a message without a time takes
+         * the key of the message before.
+         */
+        private void updateKey(String time) {
+            final long timeOfYear = LogCatTime.parseTimeOfYear(time);
+            if (timeOfYear < 0L) {
+                return;
+            }
+            long y = year;
+            if (lastTimeOfYear >= 0L && timeOfYear < lastTimeOfYear - HALF_YEAR) {
+                ++y;
+                year = y;
+                lastTimeOfYear = timeOfYear;
+            } else if (lastTimeOfYear >= 0L && timeOfYear > lastTimeOfYear + HALF_YEAR) {
+                --y;
+            } else {
+                lastTimeOfYear = timeOfYear;
+            }
+            key = y * LogCatTime.MILLIS_PER_YEAR + timeOfYear;
+        }
+    }
+
+    /**
+     * Merge on the calling thread until the end of all files. The listener gets batches of
+     * merged messages, the bytes passed to it are of all files.
+     */
+    public void parse(LogCatMessageParser.ParseListener listener) throws IOException {
+        final List<Source> sources = new ArrayList<>();
+        long totalBytes = 0L;
+        for (File file : files) {
+            sources.add(new Source(sources.size(), file, parsers.get(sources.size()).newInstance()));
+            totalBytes += file.length();
+        }
+        final List<Thread> threads = new ArrayList<>();
+        for (final Source source : sources) {
+            final Thread thread = new Thread("Parse-File-Thread-" + source.index) {
+                @Override
+                public void run() {
+                    parseSource(source);
+                }
+            };
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        final PriorityQueue<Source> heads = new PriorityQueue<>(Math.max(1, sources.size()), new Comparator<Source>() {
+            @Override
+            public int compare(Source a, Source b) {
+                if (a.key != b.key) {
+                    return a.key < b.key ? -1 : 1;
+                }
+                return a.index - b.index;
+            }
+        });
+        try {
+            final List<Source> started = new ArrayList<>();
+            long referenceTimeOfYear = -1L;
+            for (Source source : sources) {
+                if (source.advance()) {
+                    started.add(source);
+                    if (referenceTimeOfYear < 0L) {
+                        referenceTimeOfYear = source.lastTimeOfYear;
+                    }
+                } else {
+                    finish(source);
+                }
+            }
+            // the files share the year of the first one, instead of each starting at year 0
+            for (Source source : started) {
+                source.anchor(referenceTimeOfYear);
+                heads.add(source);
+            }
+            List<LogCatMessage> merged = new ArrayList<>();
+            while (!heads.isEmpty()) {
+                final Source source = heads.poll();
+                final LogCatMessage message = source.head();
+                message.setSource(source.name);
+                merged.add(message);
+                // go on with the same file while it's ahead, or while the message goes on,
+                // without the priority queue
+                boolean more;
+                while ((more = source.advance())
+                        && (source.head().isContinuation() || !isAfter(source, heads.peek()))) {
+                    final LogCatMessage next = source.head();
+                    next.setSource(source.name);
+                    merged.add(next);
+                }
+                if (more) {
+                    heads.add(source);
+                } else {
+                    finish(source);
+                }
+                if (merged.size() >= LogCatMessageParser.MAX_BATCH_SIZE) {
+                    listener.onMessagesParsed(merged, parsedBytes(sources), totalBytes);
+                    merged = new ArrayList<>();
+                }
+            }
+            listener.onMessagesParsed(merged, totalBytes, totalBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("merging interrupted");
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return true if the head of the source should be merged after the head of the other
+     */
+    private static boolean isAfter(Source source, Source other) {
+        return other != null && (source.key > other.key || (source.key == other.key && source.index > other.index));
+    }
+
+    private static long parsedBytes(List<Source> sources) {
+        long bytes = 0L;
+        for (Source source : sources) {
+            bytes += source.parsedBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * At the end of a file, its parser is done, see {@link LogCatMessageParser#getStats()}.
+     */
+    private void finish(Source source) throws IOException {
+        rethrow(source.error);
+        parser.addStats(source.parser);
+    }
+
+    private static void rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+    }
+
+    private void parseSource(final Source source) {
+        final LogCatMessageParser.ParseListener listener = new LogCatMessageParser.ParseListener() {
+            @Override
+            public void onMessagesParsed(List<LogCatMessage> messages, long parsedBytes, long totalBytes) {
+                if (messages.isEmpty()) {
+                    return;
+                }
+                try {
+                    // blocks while the merge is behind
+                    source.queue.put(messages);
+                    source.parsedBytes = parsedBytes;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            // not the parallel parser, the files are already parsed side by side
+            if (LogCatCompressedParser.isCompressed(source.file)) {
+                new LogCatCompressedParser(source.file, source.parser).parse(listener);
+            } else {
+                new LogCatStreamParser(new FileInputStream(source.file), source.parser).parse(listener);
+            }
+            source.parsedBytes = source.file.length();
+        } catch (Throwable t) {
+            source.error = t;
+        }
+        try {
+            source.queue.put(END);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
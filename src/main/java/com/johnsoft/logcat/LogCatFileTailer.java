@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Load a log file which may still be growing, like the output of
+ * {@code adb logcat -v threadtime > file}, and then parse the appended bytes only.
+ * The same parser goes on with the lines appended, so the header state of
+ * {@code -v long} and the last message of {@code javacustom} are carried over.
+ * A truncated or rotated file is read again from its start with the state of a fresh parser,
+ * the statistics of the parser go on counting, see {@link LogCatMessageParser#getStats()}.
+ * The bytes of a truncated file are gone, see {@link TruncationListener}.
+ * <p/>
+ * Not thread safe, should call {@link #load} and then {@link #poll} from one thread.
+ */
+public final class LogCatFileTailer {
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final LogCatMessageParser parser;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private Object fileKey;
+    /** bytes of the file read so far */
+    private long position;
+
+    private final byte[] readBuffer = new byte[READ_SIZE];
+    private final LogCatLineSplitter splitter = new LogCatLineSplitter();
+    private final List<String> lines = new ArrayList<>();
+    private TruncationListener truncationListener;
+
+    /**
+     * Told when the file is truncated, before any of its new lines is parsed, like a store
+     * reading the texts from the file, see {@link LogCatStore#truncateTextSource()}.
+     * A rotated file is left as it is, its bytes are still read from the old file.
+     */
+    public interface TruncationListener {
+        void onTruncated();
+    }
+
+    public LogCatFileTailer(File file, LogCatMessageParser parser) {
+        this.file = file;
+        this.parser = parser;
+    }
+
+    public void setTruncationListener(TruncationListener listener) {
+        truncationListener = listener;
+    }
+
+    /**
+     * Parse the whole file on the fork-join pool, see
+     * {@link LogCatMessageParser#processLogLinesParallel(File, LogCatMessageParser.ParseListener)}.
+     * @param holdPartialLine if true, a last line without a line terminator is left for
+     *                        {@link #poll}, as the writer may not have finished it
+     */
+    public void load(LogCatMessageParser.ParseListener listener, boolean holdPartialLine) throws IOException {
+        open();
+        final long size = channel.size();
+        final long end = holdPartialLine ? endOfLastLine(size) : size;
+        LogCatParallelParser.parse(channel, end, parser, listener);
+        position = end;
+    }
+
+    /**
+     * Parse the bytes appended since the last call.
+     * @return true if any bytes were appended
+     */
+    public boolean poll(LogCatMessageParser.ParseListener listener) throws IOException {
+        final Object currentKey;
+        try {
+            currentKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            // rotated, the new file is not created yet
+            return false;
+        }
+        boolean appended = false;
+        if (channel == null || (currentKey != null && !currentKey.equals(fileKey))) {
+            if (channel != null) {
+                // finish what was written to the old file before it was rotated
+                appended = read(listener);
+                close();
+            }
+            restart();
+            open();
+        } else if (channel.size() < position) {
+            // truncated
+            if (truncationListener != null) {
+                truncationListener.onTruncated();
+            }
+            restart();
+        }
+        return read(listener) || appended;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+        }
+        raf = null;
+        channel = null;
+        fileKey = null;
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    private void restart() {
+        parser.copyStateFrom(parser.newInstance());
+        position = 0L;
+        splitter.reset();
+    }
+
+    private boolean read(LogCatMessageParser.ParseListener listener) throws IOException {
+        final long size = channel.size();
+        if (size <= position) {
+            return false;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(readBuffer);
+        List<LogCatMessage> messages = new ArrayList<>();
+        while (position < size) {
+            buffer.clear();
+            final int n = channel.read(buffer, position);
+            if (n <= 0) {
+                break;
+            }
+            position += n;
+            consume(n, messages);
+            if (messages.size() >= LogCatMessageParser.MAX_BATCH_SIZE) {
+                parser.endBatch(messages);
+                listener.onMessagesParsed(messages, position, size);
+                messages = new ArrayList<>();
+            }
+        }
+        parser.endBatch(messages);
+        listener.onMessagesParsed(messages, position, Math.max(size, position));
+        return true;
+    }
+
+    private void consume(int length, List<LogCatMessage> messages) {
+        splitter.feed(readBuffer, 0, length, lines);
+        for (String line : lines) {
+            if (!line.isEmpty()) {
+                parser.processLogLine(line, messages);
+            }
+        }
+        lines.clear();
+    }
+
+    /**
+     * @return the offset after the last line terminator below size, or 0
+     */
+    private long endOfLastLine(long size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(readBuffer);
+        long end = size;
+        while (end > 0L) {
+            final long start = Math.max(0L, end - readBuffer.length);
+            buffer.clear();
+            buffer.limit((int) (end - start));
+            int read = 0;
+            while (buffer.hasRemaining()) {
+                final int n = channel.read(buffer, start + read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            for (int i = read - 1; i >= 0; --i) {
+                if (readBuffer[i] == '\n' || readBuffer[i] == '\r') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0L;
+    }
+}
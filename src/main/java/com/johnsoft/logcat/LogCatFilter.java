@@ -16,8 +16,10 @@
 package com.johnsoft.logcat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -25,6 +27,13 @@ import java.util.regex.PatternSyntaxException;
  * A Filter for logcat messages. A filter can be constructed to match
  * different fields of a logcat message. It can then be queried to see if
  * a message matches the filter's settings.
+ * <p/>
+ * The settings are compiled for the rows of a {@link LogCatStore}: the level is compared as
+ * an ordinal, a number as a number, a pattern without metacharacters is found by a skip table,
+ * see {@link LogCatLiteralMatcher}, and only a pattern with them by a regex. The tag, application
+ * and thread names are matched once for each name of the dictionary of the store. The cheap
+ * settings are checked first, and so are the cheap filters of a query, see {@link #sortByCost(List)}.
+ * The level, pid, tid and tag also select the messages of a {@link LogCatFieldIndex}.
  */
 public final class LogCatFilter {
     private static final String PID_KEYWORD = "pid:";
@@ -33,6 +42,8 @@ public final class LogCatFilter {
     private static final String THREAD_KEYWORD = "thread:";
     private static final String TAG_KEYWORD = "tag:";
     private static final String TEXT_KEYWORD = "text:";
+    private static final String TIME_KEYWORD = "time:";
+    private static final String RANGE_SEPARATOR = "..";
 
     private final String mName;
     private final String mTag;
@@ -41,7 +52,11 @@ public final class LogCatFilter {
     private final String mTid;
     private final String mAppName;
     private final String mThreadName;
+    private final String mTime;
     private final LogLevel mLogLevel;
+    private final int mPidValue;
+    private final int mTidValue;
+    private final int mLevelOrdinal;
 
     private boolean mCheckPid;
     private boolean mCheckTid;
@@ -49,11 +64,16 @@ public final class LogCatFilter {
     private boolean mCheckThreadName;
     private boolean mCheckTag;
     private boolean mCheckText;
+    private boolean mCheckTime;
 
-    private Pattern mAppNamePattern;
-    private Pattern mThreadNamePattern;
-    private Pattern mTagPattern;
-    private Pattern mTextPattern;
+    private NameMatcher mAppNameMatcher;
+    private NameMatcher mThreadNameMatcher;
+    private NameMatcher mTagMatcher;
+    private TextMatcher mTextMatcher;
+
+    /* bounds of the time range, either may be null */
+    private LogCatTime.Point mTimeFrom;
+    private LogCatTime.Point mTimeTo;
 
     /**
      * Construct a filter with the provided restrictions for the logcat message. All the text
@@ -69,7 +89,20 @@ public final class LogCatFilter {
      */
     public LogCatFilter(String name, String tag, String text,
                         String pid, String tid, String appName, String threadName, LogLevel logLevel) {
+        this(name, tag, text, pid, tid, appName, threadName, "", logLevel);
+    }
+
+    /**
+     * Same as the constructor without the time, and the time is a range like "12:59:09..12:59:30",
+     * each bound is "[MM-dd ]HH:mm[:ss[.SSS]]" and can be left out, see {@link LogCatTime#parse}.
+     * A bound without a date is a time of any day, and the upper bound takes in all the
+     * milliseconds it stands for. Invalid ranges are ignored.
+     */
+    public LogCatFilter(String name, String tag, String text,
+                        String pid, String tid, String appName, String threadName,
+                        String time, LogLevel logLevel) {
         mName = name.trim();
+        mTime = time.trim();
         mTag = tag.trim();
         mText = text.trim();
         mPid = pid.trim();
@@ -77,13 +110,16 @@ public final class LogCatFilter {
         mAppName = appName.trim();
         mThreadName = threadName.trim();
         mLogLevel = logLevel;
+        mLevelOrdinal = logLevel.ordinal();
 
         mCheckPid = !mPid.isEmpty();
         mCheckTid = !mTid.isEmpty();
+        mPidValue = toNumber(mPid);
+        mTidValue = toNumber(mTid);
 
         if (!mAppName.isEmpty()) {
             try {
-                mAppNamePattern = Pattern.compile(mAppName, getPatternCompileFlags(mAppName));
+                mAppNameMatcher = new NameMatcher(new TextMatcher(mAppName, getPatternCompileFlags(mAppName)));
                 mCheckAppName = true;
             } catch (PatternSyntaxException e) {
                 mCheckAppName = false;
@@ -92,7 +128,7 @@ public final class LogCatFilter {
 
         if (!mThreadName.isEmpty()) {
             try {
-                mThreadNamePattern = Pattern.compile(mThreadName, getPatternCompileFlags(mThreadName));
+                mThreadNameMatcher = new NameMatcher(new TextMatcher(mThreadName, getPatternCompileFlags(mThreadName)));
                 mCheckThreadName = true;
             } catch (PatternSyntaxException e) {
                 mCheckThreadName = false;
@@ -101,16 +137,28 @@ public final class LogCatFilter {
 
         if (!mTag.isEmpty()) {
             try {
-                mTagPattern = Pattern.compile(mTag, getPatternCompileFlags(mTag));
+                mTagMatcher = new NameMatcher(new TextMatcher(mTag, getPatternCompileFlags(mTag)));
                 mCheckTag = true;
             } catch (PatternSyntaxException e) {
                 mCheckTag = false;
             }
         }
 
+        if (!mTime.isEmpty()) {
+            final int separator = mTime.indexOf(RANGE_SEPARATOR);
+            final String from = separator < 0 ? mTime : mTime.substring(0, separator);
+            final String to = separator < 0 ? mTime : mTime.substring(separator + RANGE_SEPARATOR.length());
+            mTimeFrom = from.trim().isEmpty() ? null : LogCatTime.parse(from, false);
+            mTimeTo = to.trim().isEmpty() ? null : LogCatTime.parse(to, true);
+            // a bound which is not a time makes the range invalid
+            mCheckTime = (mTimeFrom != null || from.trim().isEmpty())
+                    && (mTimeTo != null || to.trim().isEmpty())
+                    && (mTimeFrom != null || mTimeTo != null);
+        }
+
         if (!mText.isEmpty()) {
             try {
-                mTextPattern = Pattern.compile(mText, getPatternCompileFlags(mText));
+                mTextMatcher = new TextMatcher(mText, getPatternCompileFlags(mText));
                 mCheckText = true;
             } catch (PatternSyntaxException e) {
                 mCheckText = false;
@@ -141,7 +189,8 @@ public final class LogCatFilter {
      *                 a user would type in a search bar. These words are searched for in the text field of
      *                 each collected logcat message. To search in a different field, the word could be prefixed
      *                 with a keyword corresponding to the field name. Currently, the following keywords are
-     *                 supported: "pid:", "tag:" and "text:". Invalid regexes are ignored.
+     *                 supported: "pid:", "tid:", "app:", "thread:", "tag:", "text:" and "time:".
+     *                 Invalid regexes are ignored.
      * @param minLevel minimum log level to match
      *
      * @return list of filter settings that fully match the given query
@@ -156,6 +205,7 @@ public final class LogCatFilter {
             String tid = "";
             String app = "";
             String thread = "";
+            String time = "";
 
             if (s.startsWith(PID_KEYWORD)) {
                 pid = s.substring(PID_KEYWORD.length());
@@ -167,6 +217,8 @@ public final class LogCatFilter {
                 thread = s.substring(THREAD_KEYWORD.length());
             } else if (s.startsWith(TAG_KEYWORD)) {
                 tag = s.substring(TAG_KEYWORD.length());
+            } else if (s.startsWith(TIME_KEYWORD)) {
+                time = s.substring(TIME_KEYWORD.length());
             } else {
                 if (s.startsWith(TEXT_KEYWORD)) {
                     text = s.substring(TEXT_KEYWORD.length());
@@ -175,7 +227,7 @@ public final class LogCatFilter {
                 }
             }
             filterSettings.add(new LogCatFilter("livefilter-" + s,
-                    tag, text, pid, tid, app, thread, minLevel));
+                    tag, text, pid, tid, app, thread, time, minLevel));
         }
 
         return filterSettings;
@@ -209,66 +261,401 @@ public final class LogCatFilter {
         return mThreadName;
     }
 
+    public String getTime() {
+        return mTime;
+    }
+
+    /**
+     * @return true if the filter checks the text by {@link #getText()}, which is not when
+     *          the text is empty or not a valid regex
+     */
+    public boolean isTextChecked() {
+        return mCheckText;
+    }
+
     public LogLevel getLogLevel() {
         return mLogLevel;
     }
 
     /**
-     * Check whether a given message will make it through this filter.
+     * Check whether a given row of a store will make it through this filter.
+     *
+     * @param store the rows to check
+     * @param row row to check
      *
-     * @param m message to check
+     * @return true if the row matches the filter's conditions.
+     */
+    public boolean matches(LogCatStore store, int row) {
+        return matches(store, row, row + 1);
+    }
+
+    /**
+     * Check whether the message of the rows will make it through this filter, the rows of
+     * a message of several lines share the header, and the text matches if any line matches.
      *
-     * @return true if the message matches the filter's conditions.
+     * @param row the first row of the message
+     * @param end the row after the last row of the message, see {@link LogCatStore#getRecordEnd(int, int)}
      */
-    public boolean matches(LogCatMessage m) {
+    public boolean matches(LogCatStore store, int row, int end) {
         /* filter out messages of a lower priority */
-        if (m.getLogLevel().getPriority() < mLogLevel.getPriority()) {
+        if (store.getLogLevelOrdinal(row) < mLevelOrdinal) {
             return false;
         }
 
         /* if pid filter is enabled, filter out messages whose pid does not match
          * the filter's pid */
-        if (mCheckPid && !m.getPid().equals(mPid)) {
+        if (mCheckPid && !(mPidValue >= 0 ? store.getPidValue(row) == mPidValue
+                                          : store.getPid(row).equals(mPid))) {
             return false;
         }
 
         /* if tid filter is enabled, filter out messages whose tid does not match
          * the filter's tid */
-        if (mCheckTid && !m.getTid().equals(mTid)) {
+        if (mCheckTid && !(mTidValue >= 0 ? store.getTidValue(row) == mTidValue
+                                          : store.getTid(row).equals(mTid))) {
+            return false;
+        }
+
+        /* if time filter is enabled, filter out messages out of the time range */
+        if (mCheckTime && !matchesTime(store.getTimeValue(row))) {
             return false;
         }
 
         /* if app name filter is enabled, filter out messages not matching the app name */
-        if (mCheckAppName) {
-            Matcher matcher = mAppNamePattern.matcher(m.getAppName());
-            if (!matcher.find()) {
-                return false;
-            }
+        if (mCheckAppName && !mAppNameMatcher.matches(store.getAppNames(), store.getAppNameId(row))) {
+            return false;
         }
 
         /* if thread name filter is enabled, filter out messages not matching the thread name */
-        if (mCheckThreadName) {
-            Matcher matcher = mThreadNamePattern.matcher(m.getThreadName());
-            if (!matcher.find()) {
-                return false;
-            }
+        if (mCheckThreadName && !mThreadNameMatcher.matches(store.getThreadNames(), store.getThreadNameId(row))) {
+            return false;
         }
 
         /* if tag filter is enabled, filter out messages not matching the tag */
+        if (mCheckTag && !mTagMatcher.matches(store.getTags(), store.getTagId(row))) {
+            return false;
+        }
+
+        if (mCheckText) {
+            for (int line = row; line < end; ++line) {
+                if (mTextMatcher.find(store.getMessage(line))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the first rows of the messages of the index which may match the filter by its
+     *          level, pid, tid and tag, see {@link LogCatFieldIndex}
+     */
+    LogCatBitmap select(LogCatFieldIndex index, LogCatStore store) {
+        LogCatBitmap rows = null;
+        if (mCheckPid) {
+            rows = index.getPidRows(mPidValue);
+        }
+        if (mCheckTid) {
+            rows = and(rows, index.getTidRows(mTidValue));
+        }
         if (mCheckTag) {
-            Matcher matcher = mTagPattern.matcher(m.getTag());
-            if (!matcher.find()) {
-                return false;
+            LogCatBitmap tagRows = new LogCatBitmap();
+            for (int id = 0; id < index.getTagCount(); ++id) {
+                if (mTagMatcher.matches(store.getTags(), id)) {
+                    tagRows = tagRows.or(index.getTagRows(id));
+                }
             }
+            rows = and(rows, tagRows);
         }
+        // the lowest level is of all messages
+        if (rows == null || mLevelOrdinal > 0) {
+            rows = and(rows, index.getLevelRows(mLevelOrdinal));
+        }
+        return rows;
+    }
 
+    private static LogCatBitmap and(LogCatBitmap rows, LogCatBitmap other) {
+        return rows == null ? other : rows.and(other);
+    }
+
+    /**
+     * @return true if the messages selected by {@link #select} all match the filter, which is
+     *          when it checks no more than the level, a pid and a tid of numbers, and the tag
+     */
+    boolean isSelectedExactly() {
+        return !mCheckText && !mCheckTime && !mCheckAppName && !mCheckThreadName
+                && (!mCheckPid || mPidValue >= 0) && (!mCheckTid || mTidValue >= 0);
+    }
+
+    /**
+     * @return a guess of how long the filter takes to check a message: numbers and times take
+     * the least, a name is matched once for each name of the store, and the text is searched
+     * in each line, by a skip table or, much slower, by a regex
+     */
+    public int getCost() {
+        int cost = 1;
+        if (mCheckPid || mCheckTid || mCheckTime) {
+            cost += 1;
+        }
+        if (mCheckAppName || mCheckThreadName || mCheckTag) {
+            cost += 2;
+        }
         if (mCheckText) {
-            Matcher matcher = mTextPattern.matcher(m.getMessage());
-            if (!matcher.find()) {
+            cost += mTextMatcher.isLiteral() ? 8 : 32;
+        }
+        return cost;
+    }
+
+    /**
+     * @return the filters with the cheap ones first, see {@link #getCost()}, so the cheap ones
+     * decide a message of an AND or an OR query before the costly ones are checked, the order
+     * of the filters of the same cost is kept
+     */
+    public static List<LogCatFilter> sortByCost(List<LogCatFilter> filters) {
+        final List<LogCatFilter> sorted = new ArrayList<LogCatFilter>(filters);
+        Collections.sort(sorted, new Comparator<LogCatFilter>() {
+            @Override
+            public int compare(LogCatFilter a, LogCatFilter b) {
+                return a.getCost() - b.getCost();
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Filters are equal if they have the same settings, whatever their names, so the same
+     * query typed again, or a word with and without "text:", makes an equal filter.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LogCatFilter)) {
+            return false;
+        }
+        final LogCatFilter other = (LogCatFilter) o;
+        return mLogLevel == other.mLogLevel
+                && mPid.equals(other.mPid)
+                && mTid.equals(other.mTid)
+                && mAppName.equals(other.mAppName)
+                && mThreadName.equals(other.mThreadName)
+                && mTag.equals(other.mTag)
+                && mTime.equals(other.mTime)
+                && mText.equals(other.mText);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mLogLevel.hashCode();
+        result = 31 * result + mPid.hashCode();
+        result = 31 * result + mTid.hashCode();
+        result = 31 * result + mAppName.hashCode();
+        result = 31 * result + mThreadName.hashCode();
+        result = 31 * result + mTag.hashCode();
+        result = 31 * result + mTime.hashCode();
+        result = 31 * result + mText.hashCode();
+        return result;
+    }
+
+    /**
+     * Tell from the settings alone whether every message which matches this filter also
+     * matches the other one, like when a word of a query is typed on, or the level is raised.
+     * The patterns are compared as literals, a pattern with a metacharacter only implies
+     * the same pattern, so the answer may be false for a filter which is in fact narrower.
+     *
+     * @return true if the messages of this filter are known to be among the ones of the other
+     */
+    public boolean implies(LogCatFilter other) {
+        if (mLogLevel.getPriority() < other.mLogLevel.getPriority()) {
+            return false;
+        }
+        if (other.mCheckPid && !(mCheckPid && mPid.equals(other.mPid))) {
+            return false;
+        }
+        if (other.mCheckTid && !(mCheckTid && mTid.equals(other.mTid))) {
+            return false;
+        }
+        if (other.mCheckAppName && !(mCheckAppName && impliesPattern(mAppName, other.mAppName))) {
+            return false;
+        }
+        if (other.mCheckThreadName && !(mCheckThreadName && impliesPattern(mThreadName, other.mThreadName))) {
+            return false;
+        }
+        if (other.mCheckTag && !(mCheckTag && impliesPattern(mTag, other.mTag))) {
+            return false;
+        }
+        if (other.mCheckTime && !(mCheckTime && mTime.equals(other.mTime))) {
+            return false;
+        }
+        if (other.mCheckText && !(mCheckText && impliesPattern(mText, other.mText))) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a text where the pattern is found always has the other pattern found,
+     *          which is when both are literals and this one contains the other one as the other
+     *          one matches, case insensitive matching folds US-ASCII letters only
+     */
+    private boolean impliesPattern(String regex, String otherRegex) {
+        if (regex.equals(otherRegex)) {
+            return true;
+        }
+        if (!isLiteral(regex) || !isLiteral(otherRegex)) {
+            return false;
+        }
+        if (getPatternCompileFlags(otherRegex) == 0) {
+            return getPatternCompileFlags(regex) == 0 && regex.contains(otherRegex);
+        }
+        return toLowerCaseAscii(regex).contains(toLowerCaseAscii(otherRegex));
+    }
+
+    private static boolean isLiteral(String regex) {
+        for (int i = 0; i < regex.length(); ++i) {
+            if ("\\^$.|?*+()[]{}".indexOf(regex.charAt(i)) >= 0) {
                 return false;
             }
         }
+        return true;
+    }
 
+    private static String toLowerCaseAscii(String text) {
+        final char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; ++i) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    private boolean matchesTime(long timestamp) {
+        if (timestamp < 0L) {
+            return false;
+        }
+        final long timeOfYear = timestamp % LogCatTime.MILLIS_PER_YEAR;
+        final long timeOfDay = timestamp % LogCatTime.MILLIS_PER_DAY;
+        if (mTimeFrom != null && mTimeTo != null && !mTimeFrom.hasDate && !mTimeTo.hasDate
+                && mTimeFrom.millis > mTimeTo.millis) {
+            // a range of the day across midnight, like 23:00..01:00
+            return timeOfDay >= mTimeFrom.millis || timeOfDay <= mTimeTo.millis;
+        }
+        if (mTimeFrom != null && (mTimeFrom.hasDate ? timeOfYear : timeOfDay) < mTimeFrom.millis) {
+            return false;
+        }
+        if (mTimeTo != null && (mTimeTo.hasDate ? timeOfYear : timeOfDay) > mTimeTo.millis) {
+            return false;
+        }
         return true;
     }
+
+    /**
+     * @return the number the store keeps for the text, or -1 if the store keeps the text,
+     *          so the filter compares numbers only when the texts would be equal
+     */
+    private static int toNumber(String text) {
+        if (text.isEmpty() || text.length() > 9 || (text.charAt(0) == '0' && text.length() > 1)) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Finds a pattern in a text, by {@link LogCatLiteralMatcher} if the pattern has
+     * no metacharacter, otherwise by the regex.
+     */
+    private static final class TextMatcher {
+        private final LogCatLiteralMatcher mLiteral;
+        private final Pattern mPattern;
+
+        TextMatcher(String regex, int flags) {
+            if (LogCatFilter.isLiteral(regex)) {
+                mLiteral = new LogCatLiteralMatcher(regex, (flags & Pattern.CASE_INSENSITIVE) != 0);
+                mPattern = null;
+            } else {
+                mLiteral = null;
+                mPattern = Pattern.compile(regex, flags);
+            }
+        }
+
+        boolean isLiteral() {
+            return mLiteral != null;
+        }
+
+        boolean find(String text) {
+            return mLiteral != null ? mLiteral.find(text) : mPattern.matcher(text).find();
+        }
+    }
+
+    /**
+     * Whether the names of a dictionary of the store match, by the id of the name, so a name
+     * is matched once instead of once for each row. The threads checking the chunks of a store
+     * share it without a lock: an answer is only ever written with the same value, and an
+     * answer not seen by a thread yet reads as unknown, so the name is matched again.
+     */
+    private static final class NameMatcher {
+        private static final byte UNKNOWN = 0;
+        private static final byte MATCHED = 1;
+        private static final byte UNMATCHED = 2;
+
+        private final TextMatcher mMatcher;
+        private volatile Answers mAnswers;
+
+        /** the answers for the names of one dictionary, by id */
+        private static final class Answers {
+            final LogCatDictionary names;
+            final byte[] values;
+
+            Answers(LogCatDictionary names, byte[] values) {
+                this.names = names;
+                this.values = values;
+            }
+        }
+
+        NameMatcher(TextMatcher matcher) {
+            mMatcher = matcher;
+        }
+
+        boolean matches(LogCatDictionary names, int id) {
+            Answers answers = mAnswers;
+            if (answers == null || answers.names != names || id >= answers.values.length) {
+                answers = grow(names, id);
+            }
+            final byte answer = answers.values[id];
+            if (answer != UNKNOWN) {
+                return answer == MATCHED;
+            }
+            final boolean matched = mMatcher.find(names.get(id));
+            answers.values[id] = matched ? MATCHED : UNMATCHED;
+            return matched;
+        }
+
+        /**
+         * @return the answers with room for the id, the answers of another dictionary are dropped
+         */
+        private synchronized Answers grow(LogCatDictionary names, int id) {
+            Answers answers = mAnswers;
+            if (answers != null && answers.names == names && id < answers.values.length) {
+                return answers;
+            }
+            final int length = Math.max(id + 1, Math.max(names.size(), answers == null ? 0 : answers.values.length * 2));
+            final byte[] values = answers != null && answers.names == names
+                    ? Arrays.copyOf(answers.values, length) : new byte[length];
+            answers = new Answers(names, values);
+            mAnswers = answers;
+            return answers;
+        }
+    }
 }
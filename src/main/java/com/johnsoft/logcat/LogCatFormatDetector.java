@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Tell the format of a log file from a few samples of it before it's parsed, so a file is
+ * not parsed for minutes with the wrong parser into an empty or garbled table.
+ * <p/>
+ * The head of the file and a few regions at random, but for the same file always the same,
+ * places are mapped, and the lines of the samples are matched against the header of
+ * each format, see {@link LogCatMessageParser#isHeader(String)}. The format with the most
+ * headers wins. A {@code javacustom} header is also a {@code threadtime} header with
+ * "[uid][thread]" at the start of the message, so {@code javacustom} wins as long as
+ * it matches about as many lines. A compressed file is sampled at the head only, as it
+ * can only be read from the start.
+ */
+public final class LogCatFormatDetector {
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    /** the head and the random regions */
+    private static final int SAMPLE_COUNT = 4;
+    /** javacustom still wins if it matches this share of the threadtime headers */
+    private static final double JAVA_CUSTOM_SHARE = 0.9;
+
+    private final LogCatMessageParser[] parsers = {
+            new LogCatMessageParser(), new LogCatMessageParser2(), new LogCatMessageParser3()
+    };
+    private final int[] headers = new int[parsers.length];
+
+    private LogCatFormatDetector() {
+    }
+
+    /**
+     * @return a parser of the format of the file, or null if no line of the samples
+     * is a header of any format
+     */
+    public static LogCatMessageParser detect(File file) throws IOException {
+        final LogCatFormatDetector detector = new LogCatFormatDetector();
+        if (LogCatCompressedParser.isCompressed(file)) {
+            detector.sampleCompressed(file);
+        } else {
+            detector.sampleFile(file);
+        }
+        return detector.getWinner();
+    }
+
+    private void sampleFile(File file) throws IOException {
+        try (FileInputStream input = new FileInputStream(file)) {
+            final FileChannel channel = input.getChannel();
+            final long size = channel.size();
+            if (size <= (long) SAMPLE_SIZE * SAMPLE_COUNT) {
+                sample(channel.map(FileChannel.MapMode.READ_ONLY, 0L, size), true, true);
+                return;
+            }
+            sample(channel.map(FileChannel.MapMode.READ_ONLY, 0L, SAMPLE_SIZE), true, false);
+            final Random random = new Random(size);
+            // one region in each part of the rest, so they don't overlap
+            final long partSize = (size - 2L * SAMPLE_SIZE) / (SAMPLE_COUNT - 1);
+            for (int k = 0; k < SAMPLE_COUNT - 1; ++k) {
+                final long position = SAMPLE_SIZE + k * partSize + (long) (random.nextDouble() * partSize);
+                sample(channel.map(FileChannel.MapMode.READ_ONLY, position, SAMPLE_SIZE),
+                        false, position + SAMPLE_SIZE >= size);
+            }
+        }
+    }
+
+    private void sampleCompressed(File file) throws IOException {
+        final InputStream input;
+        if (LogCatCompressedParser.isZip(file)) {
+            final ZipInputStream zip = new ZipInputStream(new FileInputStream(file));
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null && entry.isDirectory()) {
+                zip.closeEntry();
+            }
+            input = zip;
+        } else {
+            input = new GZIPInputStream(new FileInputStream(file));
+        }
+        try {
+            final byte[] bytes = new byte[SAMPLE_SIZE * SAMPLE_COUNT];
+            int length = 0;
+            int count;
+            while (length < bytes.length && (count = input.read(bytes, length, bytes.length - length)) > 0) {
+                length += count;
+            }
+            sample(ByteBuffer.wrap(bytes, 0, length), true, length < bytes.length);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Count the headers of each format in the lines of the sample.
+     * @param atStart whether the sample starts at the start of a line
+     * @param atEnd whether the sample ends at the end of the file, otherwise its last line may be cut
+     */
+    private void sample(ByteBuffer buffer, boolean atStart, boolean atEnd) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        int start = 0;
+        if (!atStart) {
+            while (start < bytes.length && bytes[start] != '\n') {
+                ++start;
+            }
+            ++start;
+        }
+        while (start < bytes.length) {
+            int end = start;
+            while (end < bytes.length && bytes[end] != '\n') {
+                ++end;
+            }
+            if (end == bytes.length && !atEnd) {
+                break;
+            }
+            int lineEnd = end;
+            if (lineEnd > start && bytes[lineEnd - 1] == '\r') {
+                --lineEnd;
+            }
+            if (lineEnd > start) {
+                final String line = LogCatLineSplitter.decode(bytes, start, lineEnd - start);
+                for (int k = 0; k < parsers.length; ++k) {
+                    if (parsers[k].isHeader(line)) {
+                        ++headers[k];
+                    }
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    private LogCatMessageParser getWinner() {
+        int best = -1;
+        for (int k = 0; k < parsers.length; ++k) {
+            if (headers[k] > 0 && (best < 0 || headers[k] > headers[best])) {
+                best = k;
+            }
+        }
+        // parsers[1] is threadtime, parsers[2] is javacustom
+        if (best == 1 && headers[2] >= headers[1] * JAVA_CUSTOM_SHARE) {
+            best = 2;
+        }
+        return best < 0 ? null : parsers[best].newInstance();
+    }
+}
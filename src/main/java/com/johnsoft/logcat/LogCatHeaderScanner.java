@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+/**
+ * Single pass scanner for the header of {@code threadtime} and {@code javacustom} lines,
+ * which records the offsets of the fields instead of creating a String per regex group.
+ * <p/>
+ * The scanner follows the path the header regex of {@link LogCatMessageParser2} and
+ * {@link LogCatMessageParser3} tries first, so a {@link #MATCH} gives the same groups
+ * as the regex. Where the regex could still backtrack into another result the scanner
+ * gives up with {@link #UNKNOWN}, and the caller should ask the regex.
+ * <p/>
+ * Not thread safe, each parser owns one.
+ */
+final class LogCatHeaderScanner {
+    /** the line is a header, the offsets are valid */
+    static final int MATCH = 0;
+    /** the line is not a header */
+    static final int NO_MATCH = 1;
+    /** the scanner can't tell, use the regex */
+    static final int UNKNOWN = 2;
+
+    int timeStart, timeEnd;
+    int pidStart, pidEnd;
+    int tidStart, tidEnd;
+    char level;
+    int tagStart, tagEnd;
+    int uidStart, uidEnd;
+    int threadStart, threadEnd;
+    int messageStart;
+
+    /**
+     * Scan {@code MM-dd HH:mm:ss.SSS pid tid L tag: msg}, the same as
+     * {@code ^(\d\d-\d\d\s\d\d:\d\d:\d\d\.\d+)\s+(\d*)\s*(\S+)\s([VDIWEAF])\s(.*?):\s(.*)}.
+     * The tag bounds are trimmed.
+     */
+    int scanThreadTime(String line) {
+        final int length = line.length();
+        int i = scanTime(line, length);
+        if (i < 0) {
+            return NO_MATCH;
+        }
+        if (hasLineTerminator(line, i, length)) {
+            return UNKNOWN;
+        }
+        i = skipWhitespaces(line, i, length);
+        pidStart = i;
+        i = skipDigits(line, i, length);
+        pidEnd = i;
+        i = skipWhitespaces(line, i, length);
+        tidStart = i;
+        while (i < length && !isWhitespace(line.charAt(i))) {
+            ++i;
+        }
+        tidEnd = i;
+        // from here on, a failure may still be a match for the regex after backtracking
+        if (tidEnd == tidStart || i + 2 >= length
+                || !isWhitespace(line.charAt(i))
+                || !isLevel(line.charAt(i + 1))
+                || !isWhitespace(line.charAt(i + 2))) {
+            return UNKNOWN;
+        }
+        level = line.charAt(i + 1);
+        i += 3;
+        final int colon = indexOfColonWhitespace(line, i, length);
+        if (colon < 0) {
+            return UNKNOWN;
+        }
+        int start = i;
+        int end = colon;
+        while (start < end && line.charAt(start) <= ' ') {
+            ++start;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            --end;
+        }
+        tagStart = start;
+        tagEnd = end;
+        messageStart = colon + 2;
+        return MATCH;
+    }
+
+    /**
+     * Scan {@code MM-dd HH:mm:ss.SSS pid tid L tag: [uid][thread] msg}, the same as
+     * {@code ^(\d\d-\d\d\s\d\d:\d\d:\d\d\.\d+)\s+(\d+)\s+(\d+)\s+([VDIWEAF])\s+(.*?):\s+\[(\d+)\]\[(.*?)\](.*)}.
+     * The tag bounds are not trimmed.
+     */
+    int scanJavaCustom(String line) {
+        final int length = line.length();
+        int i = scanTime(line, length);
+        if (i < 0) {
+            return NO_MATCH;
+        }
+        if (hasLineTerminator(line, i, length)) {
+            return UNKNOWN;
+        }
+        // none of the following greedy steps could match after backtracking
+        i = skipWhitespaces(line, i, length);
+        pidStart = i;
+        i = skipDigits(line, i, length);
+        pidEnd = i;
+        if (pidEnd == pidStart || i >= length || !isWhitespace(line.charAt(i))) {
+            return NO_MATCH;
+        }
+        i = skipWhitespaces(line, i, length);
+        tidStart = i;
+        i = skipDigits(line, i, length);
+        tidEnd = i;
+        if (tidEnd == tidStart || i >= length || !isWhitespace(line.charAt(i))) {
+            return NO_MATCH;
+        }
+        i = skipWhitespaces(line, i, length);
+        if (i + 1 >= length || !isLevel(line.charAt(i)) || !isWhitespace(line.charAt(i + 1))) {
+            return NO_MATCH;
+        }
+        level = line.charAt(i);
+        i = skipWhitespaces(line, i + 1, length);
+        tagStart = i;
+        // the tag is lazy: try every ": " in turn until the rest of the header fits
+        int colon = i;
+        while ((colon = indexOfColonWhitespace(line, colon, length)) >= 0) {
+            int j = skipWhitespaces(line, colon + 1, length);
+            if (j < length && line.charAt(j) == '[') {
+                final int uid = j + 1;
+                j = skipDigits(line, uid, length);
+                if (j > uid && j + 1 < length && line.charAt(j) == ']' && line.charAt(j + 1) == '[') {
+                    final int thread = j + 2;
+                    final int threadClose = line.indexOf(']', thread);
+                    if (threadClose >= 0) {
+                        tagEnd = colon;
+                        uidStart = uid;
+                        uidEnd = j;
+                        threadStart = thread;
+                        threadEnd = threadClose;
+                        messageStart = threadClose + 1;
+                        return MATCH;
+                    }
+                }
+            }
+            ++colon;
+        }
+        return NO_MATCH;
+    }
+
+    /**
+     * Scan {@code \d\d-\d\d\s\d\d:\d\d:\d\d\.\d+} at the start of the line.
+     * @return the offset after the time and at least one following whitespace, or -1
+     */
+    private int scanTime(String line, int length) {
+        if (length < 20
+                || !isDigit(line.charAt(0)) || !isDigit(line.charAt(1)) || line.charAt(2) != '-'
+                || !isDigit(line.charAt(3)) || !isDigit(line.charAt(4)) || !isWhitespace(line.charAt(5))
+                || !isDigit(line.charAt(6)) || !isDigit(line.charAt(7)) || line.charAt(8) != ':'
+                || !isDigit(line.charAt(9)) || !isDigit(line.charAt(10)) || line.charAt(11) != ':'
+                || !isDigit(line.charAt(12)) || !isDigit(line.charAt(13)) || line.charAt(14) != '.'
+                || !isDigit(line.charAt(15))) {
+            return -1;
+        }
+        final int end = skipDigits(line, 16, length);
+        if (end >= length || !isWhitespace(line.charAt(end))) {
+            return -1;
+        }
+        timeStart = 0;
+        timeEnd = end;
+        return end + 1;
+    }
+
+    private static int indexOfColonWhitespace(String line, int from, int length) {
+        int i = from;
+        while ((i = line.indexOf(':', i)) >= 0) {
+            if (i + 1 < length && isWhitespace(line.charAt(i + 1))) {
+                return i;
+            }
+            ++i;
+        }
+        return -1;
+    }
+
+    private static int skipDigits(String line, int i, int length) {
+        while (i < length && isDigit(line.charAt(i))) {
+            ++i;
+        }
+        return i;
+    }
+
+    private static int skipWhitespaces(String line, int i, int length) {
+        while (i < length && isWhitespace(line.charAt(i))) {
+            ++i;
+        }
+        return i;
+    }
+
+    /** same as {@code \d} */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** same as {@code \s} */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLevel(char c) {
+        return c == 'V' || c == 'D' || c == 'I' || c == 'W' || c == 'E' || c == 'A' || c == 'F';
+    }
+
+    /**
+     * {@code .} doesn't match line terminators, regex groups would backtrack around them.
+     */
+    private static boolean hasLineTerminator(String line, int from, int length) {
+        for (int i = from; i < length; ++i) {
+            final char c = line.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.util.Arrays;
+
+/**
+ * Keep the rows in primitive arrays, one per field, in fixed size segments, and the texts
+ * in byte pages. A text address is the page index in the high 32 bits and the offset in
+ * the page in the low 32 bits.
+ */
+final class LogCatHeapStorage extends LogCatRowStorage {
+    private static final int PAGE_SIZE = 1 << 20;
+
+    private static final class Segment {
+        final byte[] levels = new byte[SEGMENT_SIZE];
+        final int[] pids = new int[SEGMENT_SIZE];
+        final int[] tids = new int[SEGMENT_SIZE];
+        final long[] times = new long[SEGMENT_SIZE];
+        final int[] tags = new int[SEGMENT_SIZE];
+        final int[] appNames = new int[SEGMENT_SIZE];
+        final int[] threadNames = new int[SEGMENT_SIZE];
+        final int[] sources = new int[SEGMENT_SIZE];
+        final long[] textAddresses = new long[SEGMENT_SIZE];
+        final int[] textLengths = new int[SEGMENT_SIZE];
+    }
+
+    private volatile Segment[] segments = new Segment[16];
+    private volatile byte[][] pages = new byte[16][];
+    /** only used by the loading thread */
+    private int pageCount;
+    private int pagePosition;
+
+    @Override
+    void setRow(int row, byte level, int pid, int tid, long time, int tag, int appName,
+                int threadName, int source, long textAddress, int textLength) {
+        Segment[] segs = segments;
+        final int segment = row >>> SEGMENT_SHIFT;
+        if (segment >= segs.length) {
+            segs = Arrays.copyOf(segs, segs.length * 2);
+            segments = segs;
+        }
+        Segment seg = segs[segment];
+        if (seg == null) {
+            seg = new Segment();
+            segs[segment] = seg;
+        }
+        final int i = row & SEGMENT_MASK;
+        seg.levels[i] = level;
+        seg.pids[i] = pid;
+        seg.tids[i] = tid;
+        seg.times[i] = time;
+        seg.tags[i] = tag;
+        seg.appNames[i] = appName;
+        seg.threadNames[i] = threadName;
+        seg.sources[i] = source;
+        seg.textAddresses[i] = textAddress;
+        seg.textLengths[i] = textLength;
+    }
+
+    private Segment segment(int row) {
+        return segments[row >>> SEGMENT_SHIFT];
+    }
+
+    @Override
+    byte getLevel(int row) {
+        return segment(row).levels[row & SEGMENT_MASK];
+    }
+
+    @Override
+    int getPid(int row) {
+        return segment(row).pids[row & SEGMENT_MASK];
+    }
+
+    @Override
+    int getTid(int row) {
+        return segment(row).tids[row & SEGMENT_MASK];
+    }
+
+    @Override
+    long getTime(int row) {
+        return segment(row).times[row & SEGMENT_MASK];
+    }
+
+    @Override
+    int getTag(int row) {
+        return segment(row).tags[row & SEGMENT_MASK];
+    }
+
+    @Override
+    int getAppName(int row) {
+        return segment(row).appNames[row & SEGMENT_MASK];
+    }
+
+    @Override
+    int getThreadName(int row) {
+        return segment(row).threadNames[row & SEGMENT_MASK];
+    }
+
+    @Override
+    int getSource(int row) {
+        return segment(row).sources[row & SEGMENT_MASK];
+    }
+
+    @Override
+    long getTextAddress(int row) {
+        return segment(row).textAddresses[row & SEGMENT_MASK];
+    }
+
+    @Override
+    int getTextLength(int row) {
+        return segment(row).textLengths[row & SEGMENT_MASK];
+    }
+
+    @Override
+    long addText(byte[] bytes, int length) {
+        byte[][] array = pages;
+        if (pageCount == 0 || pagePosition + length > array[pageCount - 1].length) {
+            if (pageCount >= array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            // a text longer than a page gets a page of its own
+            array[pageCount++] = new byte[Math.max(PAGE_SIZE, length)];
+            pages = array;
+            pagePosition = 0;
+        }
+        System.arraycopy(bytes, 0, array[pageCount - 1], pagePosition, length);
+        final long address = ((long) (pageCount - 1) << 32) | pagePosition;
+        pagePosition += length;
+        return address;
+    }
+
+    @Override
+    String getText(long address, int length) {
+        return LogCatLineSplitter.decode(pages[(int) (address >>> 32)], (int) address, length);
+    }
+}
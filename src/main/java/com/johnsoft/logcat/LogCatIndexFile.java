@@ -0,0 +1,406 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * A sidecar file of a log file, which keeps the rows of a {@link LogCatStore} parsed from it,
+ * so opening the log again maps the rows instead of parsing the log.
+ * <p/>
+ * The rows are in the layout of {@link LogCatOffHeapStorage}, so they're mapped as they are:
+ * <pre>
+ *     magic, version, offset of the metadata
+ *     segments of rows
+ *     pages of texts
+ *     metadata: the format, the path, size, modified time and checksums of the head and
+ *               the tail of the log, the state of the store, the lengths of the pages,
+ *               the dictionaries, the statistics of the parse, and a checksum of all of them
+ * </pre>
+ * The texts kept as offsets in the log, see {@link LogCatStore#openTextSource(File)},
+ * are read from the log again.
+ * <p/>
+ * A sidecar of a log which changed since, or which is not whole, is not loaded and is
+ * deleted, then it's written again after the log is parsed.
+ */
+public final class LogCatIndexFile {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x4C434958; // "LCIX"
+    /** 3: continuation rows of messages of several lines, 4: the statistics of the parse */
+    private static final int VERSION = 4;
+    private static final int PREFIX_SIZE = 16;
+    private static final String SUFFIX = ".lcindex";
+    /** the bytes of the head and of the tail of the log taken in the checksums */
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private LogCatIndexFile() {
+    }
+
+    /**
+     * @return the sidecar next to the log, or in the temporary directory if the directory of
+     * the log is not writable
+     */
+    public static File getIndexFile(File source) {
+        final File file = source.getAbsoluteFile();
+        final File directory = file.getParentFile();
+        if (directory != null && directory.canWrite()) {
+            return new File(directory, "." + file.getName() + SUFFIX);
+        }
+        return new File(System.getProperty("java.io.tmpdir"), "logcat-"
+                + Integer.toHexString(file.getPath().hashCode()) + "-" + file.getName() + SUFFIX);
+    }
+
+    /**
+     * Map the rows of the sidecar of the log into the store.
+     * @param format the format the log is parsed in, like the class name of the parser
+     * @param store an empty store
+     * @param stats the statistics of the load, given the ones of the parse the sidecar is of
+     * @return false if there is no sidecar of the log as it is now
+     */
+    public static boolean load(File source, String format, LogCatStore store, LogCatParseStats stats) {
+        final File indexFile = getIndexFile(source);
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            final long length = raf.length();
+            if (length < PREFIX_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                throw new IOException("not an index file");
+            }
+            final long metaOffset = raf.readLong();
+            if (metaOffset < PREFIX_SIZE || length - metaOffset < 8L || length - metaOffset > Integer.MAX_VALUE) {
+                throw new IOException("bad metadata offset");
+            }
+            final byte[] meta = new byte[(int) (length - metaOffset)];
+            raf.seek(metaOffset);
+            raf.readFully(meta);
+            final CRC32 crc = new CRC32();
+            crc.update(meta, 0, meta.length - 8);
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(meta));
+            in.skipBytes(meta.length - 8);
+            if (in.readLong() != crc.getValue()) {
+                throw new IOException("bad metadata checksum");
+            }
+
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(meta, 0, meta.length - 8));
+            final Key key = new Key(input);
+            if (!input.readUTF().equals(format) || !key.equals(new Key(source))) {
+                // the log changed since, parse it again
+                return false;
+            }
+            final int size = input.readInt();
+            final long year = input.readLong();
+            final long lastTimeOfYear = input.readLong();
+            final long maxTimestamp = input.readLong();
+            final boolean timeSorted = input.readBoolean();
+            final boolean sourceTexts = input.readBoolean();
+            final long[] pageLengths = new long[input.readInt()];
+            long textBytes = 0L;
+            for (int i = 0; i < pageLengths.length; ++i) {
+                pageLengths[i] = input.readLong();
+                textBytes += pageLengths[i];
+            }
+            final String[][] dictionaries = new String[5][];
+            for (int i = 0; i < dictionaries.length; ++i) {
+                dictionaries[i] = readDictionary(input);
+            }
+            final LogCatParseStats parseStats = LogCatParseStats.read(input);
+            final int segmentCount = segmentCount(size);
+            final long segmentBytes = (long) LogCatRowStorage.SEGMENT_SIZE * LogCatOffHeapStorage.ROW_SIZE;
+            if (size < 0 || PREFIX_SIZE + segmentCount * segmentBytes + textBytes != metaOffset) {
+                throw new IOException("bad sizes");
+            }
+
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer[] segments = new ByteBuffer[segmentCount];
+            long position = PREFIX_SIZE;
+            for (int i = 0; i < segmentCount; ++i) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, segmentBytes);
+                position += segmentBytes;
+            }
+            final ByteBuffer[] pages = new ByteBuffer[pageLengths.length];
+            for (int i = 0; i < pages.length; ++i) {
+                pages[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, pageLengths[i]);
+                position += pageLengths[i];
+            }
+
+            if (sourceTexts && !store.hasTextSource()) {
+                store.openTextSource(source);
+            }
+            intern(store.getTags(), dictionaries[0]);
+            intern(store.getAppNames(), dictionaries[1]);
+            intern(store.getThreadNames(), dictionaries[2]);
+            intern(store.getSources(), dictionaries[3]);
+            intern(store.getOthers(), dictionaries[4]);
+            store.restore(new LogCatOffHeapStorage(segments, pages, metaOffset - PREFIX_SIZE),
+                    size, year, lastTimeOfYear, maxTimestamp, timeSorted);
+            stats.add(parseStats);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            if (!indexFile.delete()) {
+                System.err.println("Failed to delete " + indexFile);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Write the sidecar of the log with the rows of the store, should call this method from
+     * the loading thread, after all the log is parsed.
+     * @param format the format the log is parsed in, like the class name of the parser
+     * @param stats the statistics of the parse, see {@link LogCatMessageParser#getStats()}
+     * @param parsedLength the bytes of the log parsed into the store
+     * @return false if the log is not the one parsed any more
+     */
+    public static boolean write(File source, String format, LogCatStore store, LogCatParseStats stats,
+                                long parsedLength) throws IOException {
+        final Key key = new Key(source);
+        if (key.size != parsedLength) {
+            return false;
+        }
+        final File indexFile = getIndexFile(source);
+        final File temp = new File(indexFile.getPath() + ".tmp");
+        final LogCatRowStorage storage = store.getStorage();
+        final int size = store.size();
+        final ByteArrayOutputStream pageLengths = new ByteArrayOutputStream();
+        final DataOutputStream pageOutput = new DataOutputStream(pageLengths);
+        int pageCount = 0;
+        boolean sourceTexts = false;
+        long metaOffset;
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.setLength(0L);
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer rows = ByteBuffer.allocate(WRITE_BUFFER_SIZE / LogCatOffHeapStorage.ROW_SIZE
+                    * LogCatOffHeapStorage.ROW_SIZE);
+            final ByteBuffer texts = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            long rowPosition = PREFIX_SIZE;
+            long textPosition = PREFIX_SIZE + (long) segmentCount(size)
+                    * LogCatRowStorage.SEGMENT_SIZE * LogCatOffHeapStorage.ROW_SIZE;
+            // the texts are put in pages like LogCatOffHeapStorage does
+            long pageLength = 0L;
+            for (int row = 0; row < size; ++row) {
+                long textAddress = storage.getTextAddress(row);
+                int textLength = storage.getTextLength(row);
+                if (textAddress >= 0L) {
+                    final byte[] bytes = storage.getText(textAddress, textLength).getBytes(UTF_8);
+                    textLength = bytes.length;
+                    if (pageCount == 0 || (pageLength > 0L && pageLength + textLength > LogCatOffHeapStorage.PAGE_SIZE)) {
+                        if (pageCount > 0) {
+                            pageOutput.writeLong(pageLength);
+                        }
+                        ++pageCount;
+                        pageLength = 0L;
+                    }
+                    textAddress = ((long) (pageCount - 1) << 32) | pageLength;
+                    pageLength += textLength;
+                    if (textLength > texts.remaining()) {
+                        textPosition += flush(channel, texts, textPosition);
+                    }
+                    if (textLength > texts.remaining()) {
+                        textPosition += write(channel, ByteBuffer.wrap(bytes), textPosition);
+                    } else {
+                        texts.put(bytes);
+                    }
+                } else {
+                    sourceTexts = true;
+                }
+                if (!rows.hasRemaining()) {
+                    rowPosition += flush(channel, rows, rowPosition);
+                }
+                LogCatOffHeapStorage.putRow(rows, rows.position(), storage.getLevel(row),
+                        storage.getPid(row), storage.getTid(row), storage.getTime(row),
+                        storage.getTag(row), storage.getAppName(row), storage.getThreadName(row),
+                        storage.getSource(row), textAddress, textLength);
+                rows.position(rows.position() + LogCatOffHeapStorage.ROW_SIZE);
+            }
+            if (pageCount > 0) {
+                pageOutput.writeLong(pageLength);
+            }
+            flush(channel, rows, rowPosition);
+            metaOffset = textPosition + flush(channel, texts, textPosition);
+
+            final ByteArrayOutputStream meta = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(meta);
+            key.write(output);
+            output.writeUTF(format);
+            output.writeInt(size);
+            output.writeLong(store.getYear());
+            output.writeLong(store.getLastTimeOfYear());
+            output.writeLong(store.getMaxTimestamp());
+            output.writeBoolean(store.isTimeSorted());
+            output.writeBoolean(sourceTexts);
+            output.writeInt(pageCount);
+            pageOutput.flush();
+            pageLengths.writeTo(output);
+            writeDictionary(output, store.getTags());
+            writeDictionary(output, store.getAppNames());
+            writeDictionary(output, store.getThreadNames());
+            writeDictionary(output, store.getSources());
+            writeDictionary(output, store.getOthers());
+            stats.write(output);
+            output.flush();
+            final CRC32 crc = new CRC32();
+            crc.update(meta.toByteArray());
+            output.writeLong(crc.getValue());
+            output.flush();
+            // the metadata ends the file, so the file is as long as the metadata is at its end
+            write(channel, ByteBuffer.wrap(meta.toByteArray()), metaOffset);
+
+            final ByteBuffer prefix = ByteBuffer.allocate(PREFIX_SIZE);
+            prefix.putInt(MAGIC).putInt(VERSION).putLong(metaOffset);
+            flush(channel, prefix, 0L);
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    private static int segmentCount(int size) {
+        return (size + LogCatRowStorage.SEGMENT_SIZE - 1) >>> LogCatRowStorage.SEGMENT_SHIFT;
+    }
+
+    /**
+     * Write the bytes put in the buffer at the position of the file, then clear it.
+     * @return the number of bytes written
+     */
+    private static int flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        final int length = write(channel, buffer, position);
+        buffer.clear();
+        return length;
+    }
+
+    /**
+     * Write the remaining bytes of the buffer at the position of the file.
+     * @return the number of bytes written
+     */
+    private static int write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        final int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position() - start);
+        }
+        return buffer.position() - start;
+    }
+
+    private static void writeDictionary(DataOutputStream output, LogCatDictionary dictionary) throws IOException {
+        final int size = dictionary.size();
+        output.writeInt(size);
+        for (int id = 0; id < size; ++id) {
+            // not writeUTF, which is limited to 64K bytes
+            final byte[] bytes = dictionary.get(id).getBytes(UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static String[] readDictionary(DataInputStream input) throws IOException {
+        final String[] values = new String[input.readInt()];
+        for (int i = 0; i < values.length; ++i) {
+            final byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            values[i] = new String(bytes, UTF_8);
+        }
+        return values;
+    }
+
+    private static void intern(LogCatDictionary dictionary, String[] values) throws IOException {
+        for (int i = 0; i < values.length; ++i) {
+            if (dictionary.intern(values[i]) != i) {
+                throw new IOException("bad dictionary");
+            }
+        }
+    }
+
+    /**
+     * What tells a log file from the same file after it's changed.
+     */
+    private static final class Key {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final long headChecksum;
+        private final long tailChecksum;
+
+        Key(File source) throws IOException {
+            final File file = source.getAbsoluteFile();
+            path = file.getPath();
+            lastModified = file.lastModified();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                size = raf.length();
+                headChecksum = checksum(raf, 0L, (int) Math.min(SAMPLE_SIZE, size));
+                tailChecksum = checksum(raf, Math.max(0L, size - SAMPLE_SIZE), (int) Math.min(SAMPLE_SIZE, size));
+            }
+        }
+
+        Key(DataInputStream input) throws IOException {
+            path = input.readUTF();
+            size = input.readLong();
+            lastModified = input.readLong();
+            headChecksum = input.readLong();
+            tailChecksum = input.readLong();
+        }
+
+        void write(DataOutputStream output) throws IOException {
+            output.writeUTF(path);
+            output.writeLong(size);
+            output.writeLong(lastModified);
+            output.writeLong(headChecksum);
+            output.writeLong(tailChecksum);
+        }
+
+        private static long checksum(RandomAccessFile raf, long position, int length) throws IOException {
+            final byte[] bytes = new byte[length];
+            raf.seek(position);
+            raf.readFully(bytes);
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            return crc.getValue();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return size == key.size && lastModified == key.lastModified
+                    && headChecksum == key.headChecksum && tailChecksum == key.tailChecksum
+                    && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + (int) (size ^ (size >>> 32));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Split bytes fed piece by piece into UTF-8 lines. Lines are terminated like
+ * {@link java.io.BufferedReader#readLine()} does: by '\n', '\r' or "\r\n", and
+ * the bytes of an unterminated line are kept until the next piece arrives.
+ * <p/>
+ * The headers of logcat are ASCII and so are most message texts, a line of ASCII bytes
+ * is copied into its String as it is, only a line with other bytes is decoded as UTF-8,
+ * see {@link #decode(byte[], int, int, boolean)}.
+ * <p/>
+ * Not thread safe.
+ */
+final class LogCatLineSplitter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** the last line read without its line terminator yet */
+    private byte[] pendingLine = new byte[1024];
+    private int pendingLength;
+    /** the last line was terminated by '\r', a following '\n' belongs to it */
+    private boolean lastWasCR;
+
+    /**
+     * Add the lines completed by the bytes to the list, empty lines included.
+     */
+    void feed(byte[] data, int offset, int length, List<String> lines) {
+        final int end = offset + length;
+        int lineStart = offset;
+        // negative once a byte of the line is not ASCII
+        int bits = 0;
+        for (int i = offset; i < end; ++i) {
+            final byte b = data[i];
+            if (lastWasCR) {
+                lastWasCR = false;
+                if (b == '\n') {
+                    lineStart = i + 1;
+                    continue;
+                }
+            }
+            if (b != '\n' && b != '\r') {
+                bits |= b;
+                continue;
+            }
+            if (pendingLength == 0) {
+                lines.add(decode(data, lineStart, i - lineStart, bits >= 0));
+            } else {
+                appendPending(data, lineStart, i);
+                lines.add(decode(pendingLine, 0, pendingLength));
+                pendingLength = 0;
+            }
+            bits = 0;
+            lastWasCR = b == '\r';
+            lineStart = i + 1;
+        }
+        appendPending(data, lineStart, end);
+    }
+
+    /**
+     * @return the bytes after the last line terminator as a line, or null if there are none
+     */
+    String finish() {
+        if (pendingLength == 0) {
+            return null;
+        }
+        final String line = decode(pendingLine, 0, pendingLength);
+        pendingLength = 0;
+        return line;
+    }
+
+    /**
+     * @return the String of the UTF-8 bytes
+     */
+    static String decode(byte[] bytes, int offset, int length) {
+        int bits = 0;
+        for (int k = offset; k < offset + length; ++k) {
+            bits |= bytes[k];
+        }
+        return decode(bytes, offset, length, bits >= 0);
+    }
+
+    /**
+     * @param ascii whether all bytes are known to be ASCII, then they are copied as chars
+     *              without a decoder
+     * @return the String of the UTF-8 bytes
+     */
+    @SuppressWarnings("deprecation")
+    static String decode(byte[] bytes, int offset, int length, boolean ascii) {
+        return ascii ? new String(bytes, 0, offset, length) : new String(bytes, offset, length, UTF_8);
+    }
+
+    void reset() {
+        pendingLength = 0;
+        lastWasCR = false;
+    }
+
+    private void appendPending(byte[] data, int from, int to) {
+        final int length = to - from;
+        if (length <= 0) {
+            return;
+        }
+        if (pendingLength + length > pendingLine.length) {
+            final byte[] buffer = new byte[Math.max(pendingLength + length, pendingLine.length * 2)];
+            System.arraycopy(pendingLine, 0, buffer, 0, pendingLength);
+            pendingLine = buffer;
+        }
+        System.arraycopy(data, from, pendingLine, pendingLength, length);
+        pendingLength += length;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.util.Arrays;
+
+/**
+ * Find a literal in texts by a skip table, the Boyer-Moore-Horspool way: the char of the text
+ * under the last char of the literal tells how far the literal can move on, so most chars
+ * of the text are not looked at. A literal is found ignoring the case of US-ASCII letters
+ * like a pattern compiled with {@link java.util.regex.Pattern#CASE_INSENSITIVE}, the letters
+ * are folded as they are compared, so the text is not copied. A literal matching the case is
+ * found by {@link String#indexOf(String, int)}, which the JIT compiles into a search as fast
+ * as the table on the short lines of a log.
+ * <p/>
+ * A matcher is not changed after it's made, and may be used by several threads.
+ */
+public final class LogCatLiteralMatcher {
+    /** the shifts are looked up by the low byte of a char, a char sharing it with a char of the literal moves less */
+    private static final int TABLE_SIZE = 256;
+
+    private final String literalText;
+    private final char[] literal;
+    private final boolean ignoreCase;
+    private final int[] shifts = new int[TABLE_SIZE];
+
+    /**
+     * @param literal the text to find, not empty
+     * @param ignoreCase whether to ignore the case of US-ASCII letters
+     */
+    public LogCatLiteralMatcher(String literal, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        this.literalText = literal;
+        this.literal = literal.toCharArray();
+        if (ignoreCase) {
+            for (int i = 0; i < this.literal.length; ++i) {
+                this.literal[i] = fold(this.literal[i]);
+            }
+        }
+        final int last = this.literal.length - 1;
+        Arrays.fill(shifts, this.literal.length);
+        // the chars nearer to the end come later, so a shift shared by several chars is the least of theirs
+        for (int i = 0; i < last; ++i) {
+            shifts[this.literal[i] & (TABLE_SIZE - 1)] = last - i;
+        }
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    public boolean find(String text) {
+        return indexOf(text, 0) >= 0;
+    }
+
+    /**
+     * @return the index of the first literal in the text at the index or after it, or -1
+     */
+    public int indexOf(String text, int from) {
+        if (!ignoreCase) {
+            return text.indexOf(literalText, from);
+        }
+        final char[] pattern = literal;
+        final int last = pattern.length - 1;
+        final char lastChar = pattern[last];
+        final int length = text.length();
+        int i = Math.max(0, from) + last;
+        while (i < length) {
+            final char c = fold(text.charAt(i));
+            if (c == lastChar) {
+                int j = last - 1;
+                int k = i - 1;
+                while (j >= 0 && fold(text.charAt(k)) == pattern[j]) {
+                    --j;
+                    --k;
+                }
+                if (j < 0) {
+                    return k + 1;
+                }
+            }
+            i += shifts[c & (TABLE_SIZE - 1)];
+        }
+        return -1;
+    }
+}
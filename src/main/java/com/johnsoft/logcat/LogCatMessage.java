@@ -16,11 +16,17 @@
 
 package com.johnsoft.logcat;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Model a single log message output from {@code logcat -v long}.
  * A logcat message has a {@link LogLevel}, the pid (process id) of the process
  * generating the message, the time at which the message was generated, and
  * the tag and message itself.
+ * <p/>
+ * The text of a message may have several lines, like a stack trace, the lines after the first
+ * one are its body lines, which share the header of the message, see {@link #getBodyLineCount()}.
  */
 public final class LogCatMessage {
     private final LogLevel mLogLevel;
@@ -32,9 +38,23 @@ public final class LogCatMessage {
     private final String mTime;
     private final String mMessage;
     private final boolean mOnlyBody; //if false, will just show mMessage;
+    /** set by the parser before the message is handed out, see getTextOffset() */
+    private long mTextOffset = -1L;
+    /** the log file of the message when several are merged, see LogCatFileMerger */
+    private String mSource = "";
+    /** the lines of the text after the first one, null if the text is one line */
+    private List<String> mBodyLines;
+    /** the offsets of the body lines in the log file, like mTextOffset */
+    private long[] mBodyLineOffsets;
+    /** whether the body lines are shown without the header, like mOnlyBody */
+    private boolean mBodyLinesOnlyBody;
+    /** the message goes on with the lines of the message before it */
+    private boolean mContinuation;
 
     /**
-     * Construct an immutable log message object.
+     * Construct a log message object. The header fields are final, the parser still sets the
+     * offsets, the source, the body lines and whether it's a continuation before the message
+     * is handed out, it's not changed after that.
      */
     public LogCatMessage(LogLevel logLevel, String pid, String tid,
                          String appName, String threadName, String tag,
@@ -48,16 +68,35 @@ public final class LogCatMessage {
         mMessage = msg;
         mOnlyBody = onlyBody;
 
-        try {
-            // Thread id's may be in hex on some platforms.
-            // Decode and store them in radix 10.
-            tid = Long.toString(Long.decode(tid.trim()));
-        } catch (NumberFormatException e) {
-            tid = "";
+        if (!isDecimal(tid)) {
+            try {
+                // Thread id's may be in hex on some platforms.
+                // Decode and store them in radix 10.
+                tid = Long.toString(Long.decode(tid.trim()));
+            } catch (NumberFormatException e) {
+                tid = "";
+            }
         }
         mTid = tid;
     }
 
+    /**
+     * @return true if the text is a number in radix 10 already, so decoding it gives it back
+     */
+    private static boolean isDecimal(String text) {
+        final int length = text.length();
+        if (length == 0 || length > 18 || (text.charAt(0) == '0' && length > 1)) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public LogLevel getLogLevel() {
         return mLogLevel;
     }
@@ -94,6 +133,91 @@ public final class LogCatMessage {
         return mOnlyBody;
     }
 
+    /**
+     * @return the offset of the UTF-8 bytes of the message text in the log file,
+     *          or -1 if the text is not known to be there as it is
+     */
+    public long getTextOffset() {
+        return mTextOffset;
+    }
+
+    void setTextOffset(long textOffset) {
+        mTextOffset = textOffset;
+    }
+
+    /**
+     * @return the name of the log file the message is from, or empty if there is one log file
+     */
+    public String getSource() {
+        return mSource;
+    }
+
+    void setSource(String source) {
+        mSource = source;
+    }
+
+    /**
+     * @return the number of lines of the text after the first one, each is a row of its own
+     *          in a {@link LogCatStore}
+     */
+    public int getBodyLineCount() {
+        return mBodyLines == null ? 0 : mBodyLines.size();
+    }
+
+    public String getBodyLine(int index) {
+        return mBodyLines.get(index);
+    }
+
+    /**
+     * @return the offset of the UTF-8 bytes of the body line in the log file, or -1,
+     *          see {@link #getTextOffset()}
+     */
+    public long getBodyLineOffset(int index) {
+        return mBodyLineOffsets[index];
+    }
+
+    void setBodyLineOffset(int index, long offset) {
+        mBodyLineOffsets[index] = offset;
+    }
+
+    /**
+     * @return true if the body lines are shown without the header, like the lines following
+     *          a header in {@code javacustom}, see {@link #isOnlyBody()}
+     */
+    public boolean isBodyLinesOnlyBody() {
+        return mBodyLinesOnlyBody;
+    }
+
+    /**
+     * Add a line to the text of the message, should call it from the parser only, before
+     * the message is handed out.
+     */
+    void addBodyLine(String line, boolean onlyBody) {
+        if (mBodyLines == null) {
+            mBodyLines = new ArrayList<>(4);
+            mBodyLineOffsets = new long[4];
+        } else if (mBodyLines.size() == mBodyLineOffsets.length) {
+            final long[] offsets = new long[mBodyLineOffsets.length * 2];
+            System.arraycopy(mBodyLineOffsets, 0, offsets, 0, mBodyLineOffsets.length);
+            mBodyLineOffsets = offsets;
+        }
+        mBodyLineOffsets[mBodyLines.size()] = -1L;
+        mBodyLines.add(line);
+        mBodyLinesOnlyBody = onlyBody;
+    }
+
+    /**
+     * @return true if the message is more lines of the message before it, which was handed
+     *          out in an earlier batch of the parser, so both are one message of several lines
+     */
+    public boolean isContinuation() {
+        return mContinuation;
+    }
+
+    void setContinuation(boolean continuation) {
+        mContinuation = continuation;
+    }
+
     @Override
     public String toString() {
         return mTime + ": "
@@ -16,11 +16,10 @@
 
 package com.johnsoft.logcat;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -35,6 +34,36 @@ public class LogCatMessageParser {
     private String mCurTid = "?";
     private String mCurTag = "?";
     private String mCurTime = "?:??";
+    /** whether a body line of the last header has been seen, the lines after it are of the same message */
+    private boolean mHeaderFollowed;
+    /** the last message of the previous batch */
+    private LogCatMessage mLastMessage;
+    /** shares the header values repeated on many lines, like tag, pid and thread name */
+    private final LogCatDictionary mDictionary = new LogCatDictionary(MAX_DICTIONARY_SIZE);
+    /** what this parser has seen, counted once per batch */
+    private final LogCatParseStats mStats = new LogCatParseStats();
+    /** the lines left out since the last batch */
+    private int mMalformedLines;
+
+    /** the first batch is small to show something quickly, the later ones grow */
+    static final int FIRST_BATCH_SIZE = 256;
+    static final int MAX_BATCH_SIZE = 16384;
+    private static final int READ_SIZE = 64 * 1024;
+    /** bounds the memory of a parser, header values not seen before are not shared past it */
+    private static final int MAX_DICTIONARY_SIZE = 65536;
+
+    /**
+     * Receive messages while a file is being parsed.
+     */
+    public interface ParseListener {
+        /**
+         * Called on the parsing thread, with the messages following the ones of the last call.
+         * @param messages the next parsed messages, owned by the listener
+         * @param parsedBytes about how many bytes of the file have been parsed
+         * @param totalBytes the size of the file
+         */
+        void onMessagesParsed(List<LogCatMessage> messages, long parsedBytes, long totalBytes);
+    }
 
     /**
      * This pattern is meant to parse the first line of a log message with the option
@@ -69,57 +98,223 @@ public class LogCatMessageParser {
             }
             processLogLine(line, messages);
         }
+        endBatch(messages);
         return messages;
     }
 
     public List<LogCatMessage> processLogLines(File logFile)
                                                 throws IOException {
         final List<LogCatMessage> messages = new ArrayList<>();
-        BufferedReader reader = null;
+        processLogLines(logFile, new Collector(messages));
+        return messages;
+    }
+
+    /**
+     * Same as {@link #processLogLines(File)}, but the messages are handed to the listener
+     * in batches while the file is being parsed. The bytes are split into lines as they are,
+     * without a Reader decoding every byte, see {@link LogCatLineSplitter}.
+     */
+    public void processLogLines(File logFile, ParseListener listener)
+                                                throws IOException {
+        final long totalBytes = logFile.length();
+        final InputStream input = new FileInputStream(logFile);
         try {
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), "UTF-8"));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isEmpty()) {
-                    continue;
+            final LogCatLineSplitter splitter = new LogCatLineSplitter();
+            final byte[] buffer = new byte[READ_SIZE];
+            final List<String> lines = new ArrayList<>();
+            long readBytes = 0L;
+            int batchSize = FIRST_BATCH_SIZE;
+            List<LogCatMessage> messages = new ArrayList<>();
+            int n;
+            while ((n = input.read(buffer)) >= 0) {
+                readBytes += n;
+                splitter.feed(buffer, 0, n, lines);
+                for (String line : lines) {
+                    if (!line.isEmpty()) {
+                        processLogLine(line, messages);
+                    }
+                }
+                lines.clear();
+                if (messages.size() >= batchSize) {
+                    endBatch(messages);
+                    listener.onMessagesParsed(messages, readBytes, totalBytes);
+                    messages = new ArrayList<>();
+                    batchSize = nextBatchSize(batchSize);
                 }
+            }
+            final String line = splitter.finish();
+            if (line != null) {
                 processLogLine(line, messages);
             }
+            endBatch(messages);
+            listener.onMessagesParsed(messages, totalBytes, totalBytes);
         } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException ignored) {
-                }
+            try {
+                input.close();
+            } catch (IOException ignored) {
             }
         }
+    }
+
+    /**
+     * Same as {@link #processLogLines(File)}, but the file is memory-mapped, split into chunks
+     * and the chunks are parsed in parallel by fresh parsers of this format, see
+     * {@link #newInstance()} and {@link #isChunkStart(String)}.
+     */
+    public List<LogCatMessage> processLogLinesParallel(File logFile)
+                                                throws IOException {
+        final List<LogCatMessage> messages = new ArrayList<>();
+        processLogLinesParallel(logFile, new Collector(messages));
         return messages;
     }
 
+    /**
+     * Same as {@link #processLogLinesParallel(File)}, but the messages are handed to the
+     * listener in batches and in file order, as soon as all previous messages are parsed.
+     */
+    public void processLogLinesParallel(File logFile, ParseListener listener)
+                                                throws IOException {
+        LogCatParallelParser.parse(logFile, this, listener);
+    }
+
+    /**
+     * @return a parser of the same format without any state of previous calls
+     */
+    protected LogCatMessageParser newInstance() {
+        return new LogCatMessageParser();
+    }
+
+    /**
+     * Whether a fresh parser can start at the line and give the same messages
+     * as a parser which has seen all previous lines. For {@code -v long} this is
+     * a header line, the body lines depend on the last seen header.
+     */
+    protected boolean isChunkStart(String line) {
+        return sLogHeaderPattern.matcher(line).matches();
+    }
+
+    /**
+     * Whether the line is the header of a message of this format, for telling the format
+     * of a log file, see {@link LogCatFormatDetector}.
+     */
+    protected boolean isHeader(String line) {
+        return sLogHeaderPattern.matcher(line).matches();
+    }
+
+    /**
+     * @return the name of the format, the option of {@code logcat -v}
+     */
+    public String getFormat() {
+        return "long";
+    }
+
     protected void processLogLine(String line, List<LogCatMessage> messages) {
         final Matcher matcher = sLogHeaderPattern.matcher(line);
         if (matcher.matches()) {
             mCurTime = matcher.group(1);
-            mCurPid = matcher.group(2);
-            mCurTid = matcher.group(3);
+            mCurPid = share(line, matcher.start(2), matcher.end(2));
+            mCurTid = share(line, matcher.start(3), matcher.end(3));
             mCurLogLevel = LogLevel.getByLetterString(matcher.group(4));
-            mCurTag = matcher.group(5).trim();
+            mCurTag = share(matcher.group(5).trim());
             /* LogLevel doesn't support messages with severity "F". Log.wtf() is supposed
              * to generate "A", but generates "F". */
             if (mCurLogLevel == null && matcher.group(4).equals("F")) {
                 mCurLogLevel = LogLevel.ASSERT;
             }
+            mHeaderFollowed = false;
+        } else if (mHeaderFollowed && !messages.isEmpty()) {
+            // the last message is of the same header
+            messages.get(messages.size() - 1).addBodyLine(line, false);
         } else {
             String pkgName = "";
             String threadName = "";
-            messages.add(new LogCatMessage(mCurLogLevel, mCurPid, mCurTid,
+            final LogCatMessage message = new LogCatMessage(mCurLogLevel, mCurPid, mCurTid,
                     pkgName, threadName, mCurTag, mCurTime,
-                    markMaxLengthMessage(line)/*currMsg*/, false/*onlyBody*/));
+                    line/*currMsg*/, false/*onlyBody*/);
+            // the lines of the header before are in the previous batch
+            message.setContinuation(mHeaderFollowed);
+            messages.add(message);
+            mHeaderFollowed = true;
+        }
+    }
+
+    /**
+     * Whether the first message parsed by a fresh parser from a chunk start is more lines
+     * of the last message of the chunk before, see {@link #isChunkStart(String)}. For the
+     * formats whose chunks start at a header only, it's never.
+     */
+    protected boolean isSameMessage(LogCatMessage previous, LogCatMessage next) {
+        return false;
+    }
+
+    /**
+     * LogLevel doesn't support messages with severity "F". Log.wtf() is supposed
+     * to generate "A", but generates "F".
+     */
+    protected static LogLevel getLogLevel(char letter) {
+        final LogLevel logLevel = LogLevel.getByLetter(letter);
+        if (logLevel == null && letter == 'F') {
+            return LogLevel.ASSERT;
+        }
+        return logLevel;
+    }
+
+    /**
+     * @return the shared instance of {@code line.substring(start, end)}
+     */
+    protected final String share(String line, int start, int end) {
+        final int id = mDictionary.intern(line, start, end);
+        return id >= 0 ? mDictionary.get(id) : line.substring(start, end);
+    }
+
+    /**
+     * @return the shared instance of the value
+     */
+    protected final String share(String value) {
+        final int id = mDictionary.intern(value);
+        return id >= 0 ? mDictionary.get(id) : value;
+    }
+
+    /**
+     * @return the dictionary sharing the header values, for its hit ratio after a load
+     */
+    public final LogCatDictionary getDictionary() {
+        return mDictionary;
+    }
+
+    /**
+     * @return the statistics of the lines this parser has seen, and of the parsers of the other
+     *          parts of the same load, like the chunks of a parallel parse
+     */
+    public final LogCatParseStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Count a line left out as it's neither a header nor a line of a message.
+     */
+    protected final void countMalformedLine() {
+        ++mMalformedLines;
+    }
+
+    static int nextBatchSize(int batchSize) {
+        return Math.min(batchSize * 2, MAX_BATCH_SIZE);
+    }
+
+    private static final class Collector implements ParseListener {
+        private final List<LogCatMessage> messages;
+
+        Collector(List<LogCatMessage> messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public void onMessagesParsed(List<LogCatMessage> list, long parsedBytes, long totalBytes) {
+            messages.addAll(list);
         }
     }
 
     protected static final int DEFAULT_LIMIT = 100;
-    protected static volatile String sMaxLengthMessage = "";
 
     protected static final List<String> splitTextWithFixLength(String text, int limit) {
         List<String> strings = new ArrayList<>();
@@ -134,29 +329,89 @@ public class LogCatMessageParser {
         return strings;
     }
 
-    protected static final String markMaxLengthMessage(String line) {
-        if (line.length() > sMaxLengthMessage.length()) {
-            sMaxLengthMessage = line;
+    /**
+     * Take over the state another parser of this format has reached, so this parser
+     * goes on as if it had seen the lines of the other one.
+     */
+    void copyStateFrom(LogCatMessageParser other) {
+        mCurLogLevel = other.mCurLogLevel;
+        mCurPid = other.mCurPid;
+        mCurTid = other.mCurTid;
+        mCurTag = other.mCurTag;
+        mCurTime = other.mCurTime;
+        mHeaderFollowed = other.mHeaderFollowed;
+        mLastMessage = other.mLastMessage;
+    }
+
+    /**
+     * Count the lookups of a parser of another part of the same lines, see {@link #getDictionary()}.
+     */
+    void addDictionaryCounts(LogCatMessageParser other) {
+        mDictionary.addCounts(other.mDictionary);
+    }
+
+    /**
+     * Add the statistics of a parser of another part of the same load, see {@link #getStats()}.
+     */
+    void addStats(LogCatMessageParser other) {
+        mStats.add(other.mStats);
+    }
+
+    /**
+     * Remember the last message of a batch before the caller starts a new list, so
+     * a following body line can still be attached to it, see {@link #followLastMessage}.
+     */
+    final void endBatch(List<LogCatMessage> messages) {
+        mStats.addMessages(messages);
+        if (mMalformedLines > 0) {
+            mStats.addMalformedLines(mMalformedLines);
+            mMalformedLines = 0;
+        }
+        if (!messages.isEmpty()) {
+            mLastMessage = messages.get(messages.size() - 1);
         }
-        return line;
     }
 
-    public static final String getMaxLengthMessage() {
-        return sMaxLengthMessage;
+    /**
+     * Add a line which is not a header to the last message as a body line, shown without
+     * the header. If the last message is in the previous batch, the line starts a message
+     * which goes on with it, see {@link LogCatMessage#isContinuation()}.
+     */
+    protected final void followLastMessage(String line, List<LogCatMessage> messages) {
+        followLastMessage(line, true, messages);
     }
 
-    protected static final void followLastMessage(String line, List<LogCatMessage> messages) {
+    /**
+     * Same as {@link #followLastMessage(String, List)}, for a text which is not a whole line.
+     * @param onlyBody whether the text is shown without the header, see {@link LogCatMessage#isOnlyBody()}
+     */
+    protected final void followLastMessage(String text, boolean onlyBody, List<LogCatMessage> messages) {
         if (!messages.isEmpty()) {
-            final LogCatMessage m = messages.get(messages.size() - 1);
-            messages.add(new LogCatMessage(m.getLogLevel(),
+            messages.get(messages.size() - 1).addBodyLine(text, onlyBody);
+            return;
+        }
+        final LogCatMessage m = mLastMessage;
+        if (m != null) {
+            final LogCatMessage message = new LogCatMessage(m.getLogLevel(),
                     m.getPid(),
                     m.getTid(),
                     m.getAppName(),
                     m.getThreadName(),
                     m.getTag(),
                     m.getTime(),
-                    markMaxLengthMessage(line)/*currMsg*/,
-                    true)/*onlyBody*/);
+                    text/*currMsg*/,
+                    onlyBody);
+            message.setContinuation(true);
+            messages.add(message);
+        } else {
+            countMalformedLine();
         }
     }
+
+    /**
+     * @return the last message parsed, in this batch or the previous one, or null
+     */
+    protected final LogCatMessage getLastMessage(List<LogCatMessage> messages) {
+        return messages.isEmpty() ? mLastMessage : messages.get(messages.size() - 1);
+    }
 }
@@ -22,17 +22,73 @@ import java.util.regex.Pattern;
 
 /**
  * Class to parse raw output of {@code adb logcat -v threadtime} to {@link LogCatMessage} objects.
+ * Logcat prints every line of a message of several lines with the same header, so the lines
+ * following a line of the same header are body lines of its message.
  * @author John Kenrinus Lee
  * @version 2016-04-26
  */
 public class LogCatMessageParser2 extends LogCatMessageParser {
     //04-25 19:04:38.041  1190  1190 I MyTag: this is message body
-    private static final Pattern sLogHeaderPattern = Pattern.compile(
+    static final Pattern sLogHeaderPattern = Pattern.compile(
             "^(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
                     + "\\s+(\\d*)\\s*(\\S+)\\s([VDIWEAF])\\s(.*?):\\s(.*)");
 
+    private final LogCatHeaderScanner mScanner = new LogCatHeaderScanner();
+
+    @Override
+    protected LogCatMessageParser newInstance() {
+        return new LogCatMessageParser2();
+    }
+
+    /**
+     * Every line is parsed on its own, lines not matching the header are dropped.
+     */
+    @Override
+    protected boolean isChunkStart(String line) {
+        return true;
+    }
+
+    @Override
+    protected boolean isHeader(String line) {
+        final int result = mScanner.scanThreadTime(line);
+        return result == LogCatHeaderScanner.MATCH
+                || (result == LogCatHeaderScanner.UNKNOWN && sLogHeaderPattern.matcher(line).matches());
+    }
+
+    @Override
+    public String getFormat() {
+        return "threadtime";
+    }
+
     @Override
     protected void processLogLine(String line, List<LogCatMessage> messages) {
+        final LogCatHeaderScanner scanner = mScanner;
+        final int result = scanner.scanThreadTime(line);
+        if (result == LogCatHeaderScanner.MATCH) {
+            final LogCatMessage last = getLastMessage(messages);
+            if (last != null && !last.isOnlyBody() && hasHeaderOf(last, line, scanner)) {
+                followLastMessage(line.substring(scanner.messageStart), false, messages);
+                return;
+            }
+            String pkgName = "";
+            String threadName = "";
+            messages.add(new LogCatMessage(getLogLevel(scanner.level),
+                    share(line, scanner.pidStart, scanner.pidEnd)/*currPid*/,
+                    share(line, scanner.tidStart, scanner.tidEnd)/*currTid*/,
+                    pkgName,
+                    threadName,
+                    share(line, scanner.tagStart, scanner.tagEnd)/*currTag*/,
+                    line.substring(scanner.timeStart, scanner.timeEnd)/*currTime*/,
+                    line.substring(scanner.messageStart)/*currMsg*/,
+                    false/*onlyBody*/));
+        } else if (result == LogCatHeaderScanner.UNKNOWN) {
+            processLogLineByPattern(line, messages);
+        } else {
+            countMalformedLine();
+        }
+    }
+
+    private void processLogLineByPattern(String line, List<LogCatMessage> messages) {
         final Matcher matcher = sLogHeaderPattern.matcher(line);
         if (matcher.matches()) {
             /* LogLevel doesn't support messages with severity "F". Log.wtf() is supposed
@@ -43,15 +99,48 @@ public class LogCatMessageParser2 extends LogCatMessageParser {
             }
             String pkgName = "";
             String threadName = "";
-            messages.add(new LogCatMessage(currLogLevel,
-                    matcher.group(2)/*currPid*/,
-                    matcher.group(3)/*currTid*/,
+            final LogCatMessage message = new LogCatMessage(currLogLevel,
+                    share(line, matcher.start(2), matcher.end(2))/*currPid*/,
+                    share(line, matcher.start(3), matcher.end(3))/*currTid*/,
                     pkgName,
                     threadName,
-                    matcher.group(5).trim()/*currTag*/,
+                    share(matcher.group(5).trim())/*currTag*/,
                     matcher.group(1)/*currTime*/,
-                    markMaxLengthMessage(matcher.group(6))/*currMsg*/,
-                    false/*onlyBody*/));
+                    matcher.group(6)/*currMsg*/,
+                    false/*onlyBody*/);
+            final LogCatMessage last = getLastMessage(messages);
+            if (last != null && isSameMessage(last, message)) {
+                followLastMessage(message.getMessage(), false, messages);
+            } else {
+                messages.add(message);
+            }
+        } else {
+            countMalformedLine();
         }
     }
+
+    @Override
+    protected boolean isSameMessage(LogCatMessage previous, LogCatMessage next) {
+        return !previous.isOnlyBody() && !next.isOnlyBody()
+                && previous.getLogLevel() == next.getLogLevel()
+                && previous.getTime().equals(next.getTime())
+                && previous.getPid().equals(next.getPid())
+                && previous.getTid().equals(next.getTid())
+                && previous.getTag().equals(next.getTag());
+    }
+
+    /**
+     * @return whether the header the scanner has found in the line is the header of the message
+     */
+    private static boolean hasHeaderOf(LogCatMessage m, String line, LogCatHeaderScanner scanner) {
+        return m.getLogLevel() == getLogLevel(scanner.level)
+                && regionEquals(line, scanner.timeStart, scanner.timeEnd, m.getTime())
+                && regionEquals(line, scanner.pidStart, scanner.pidEnd, m.getPid())
+                && regionEquals(line, scanner.tidStart, scanner.tidEnd, m.getTid())
+                && regionEquals(line, scanner.tagStart, scanner.tagEnd, m.getTag());
+    }
+
+    private static boolean regionEquals(String line, int start, int end, String value) {
+        return value.length() == end - start && line.regionMatches(start, value, 0, end - start);
+    }
 }
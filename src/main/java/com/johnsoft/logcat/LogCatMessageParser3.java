@@ -29,12 +29,60 @@ public class LogCatMessageParser3 extends LogCatMessageParser {
     // 06-02 15:41:27.925 2669 3761 W System.err: [10062][Verbal-Engine] onEvent called
     // 06-03 08:28:38.589 5451 5451 I BootReceiver: [10062][main] onReceive called
     // %date{MM-dd HH:mm:ss.SSS} %pid %tid %level{1} %tag{48}: [%uid][%thread] %msg
-    private static final Pattern sLogHeaderPattern = Pattern.compile(
+    static final Pattern sLogHeaderPattern = Pattern.compile(
             "^(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)\\s+(\\d+)\\s+(\\d+)\\s+([VDIWEAF])\\s+(.*?):" +
                     "\\s+\\[(\\d+)\\]\\[(.*?)\\](.*)");
 
+    private final LogCatHeaderScanner mScanner = new LogCatHeaderScanner();
+
+    @Override
+    protected LogCatMessageParser newInstance() {
+        return new LogCatMessageParser3();
+    }
+
+    /**
+     * Lines not matching the header follow the last message, so only a header line
+     * can start a chunk.
+     */
+    @Override
+    protected boolean isChunkStart(String line) {
+        return sLogHeaderPattern.matcher(line).matches();
+    }
+
+    @Override
+    protected boolean isHeader(String line) {
+        final int result = mScanner.scanJavaCustom(line);
+        return result == LogCatHeaderScanner.MATCH
+                || (result == LogCatHeaderScanner.UNKNOWN && sLogHeaderPattern.matcher(line).matches());
+    }
+
+    @Override
+    public String getFormat() {
+        return "javacustom";
+    }
+
     @Override
     protected void processLogLine(String line, List<LogCatMessage> messages) {
+        final LogCatHeaderScanner scanner = mScanner;
+        final int result = scanner.scanJavaCustom(line);
+        if (result == LogCatHeaderScanner.MATCH) {
+            messages.add(new LogCatMessage(getLogLevel(scanner.level),
+                    share(line, scanner.pidStart, scanner.pidEnd)/*currPid*/,
+                    share(line, scanner.tidStart, scanner.tidEnd)/*currTid*/,
+                    share(line, scanner.uidStart, scanner.uidEnd)/*pkgName, use uid instead*/,
+                    share(line, scanner.threadStart, scanner.threadEnd)/*threadName*/,
+                    share(line, scanner.tagStart, scanner.tagEnd)/*currTag*/,
+                    line.substring(scanner.timeStart, scanner.timeEnd)/*currTime*/,
+                    line.substring(scanner.messageStart)/*currMsg*/,
+                    false/*onlyBody*/));
+        } else if (result == LogCatHeaderScanner.NO_MATCH) {
+            followLastMessage(line, messages);
+        } else {
+            processLogLineByPattern(line, messages);
+        }
+    }
+
+    private void processLogLineByPattern(String line, List<LogCatMessage> messages) {
         final Matcher matcher = sLogHeaderPattern.matcher(line);
         if (matcher.matches()) {
              /* LogLevel doesn't support messages with severity "F". Log.wtf() is supposed
@@ -44,13 +92,13 @@ public class LogCatMessageParser3 extends LogCatMessageParser {
                 currLogLevel = LogLevel.ASSERT;
             }
             messages.add(new LogCatMessage(currLogLevel,
-                    matcher.group(2)/*currPid*/,
-                    matcher.group(3)/*currTid*/,
-                    matcher.group(6)/*pkgName, use uid instead*/,
-                    matcher.group(7)/*threadName*/,
-                    matcher.group(5)/*currTag*/,
+                    share(line, matcher.start(2), matcher.end(2))/*currPid*/,
+                    share(line, matcher.start(3), matcher.end(3))/*currTid*/,
+                    share(line, matcher.start(6), matcher.end(6))/*pkgName, use uid instead*/,
+                    share(line, matcher.start(7), matcher.end(7))/*threadName*/,
+                    share(line, matcher.start(5), matcher.end(5))/*currTag*/,
                     matcher.group(1)/*currTime*/,
-                    markMaxLengthMessage(matcher.group(8))/*currMsg*/,
+                    matcher.group(8)/*currMsg*/,
                     false/*onlyBody*/));
         } else {
             followLastMessage(line, messages);
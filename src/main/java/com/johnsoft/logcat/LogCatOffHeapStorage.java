@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Keep the rows and the texts off the heap, in direct buffers or in buffers mapped from a
+ * scratch file, which is deleted on exit. The heap keeps only the arrays of buffers,
+ * so it hardly grows with the log.
+ * <p/>
+ * Each segment of rows is a row header region: rows of a fixed width, one after another,
+ * with the fields at fixed offsets. The texts are in a separate region of pages, a text
+ * address is the page index in the high 32 bits and the offset in the page in the low 32 bits.
+ */
+final class LogCatOffHeapStorage extends LogCatRowStorage {
+    static final int PAGE_SIZE = 16 << 20;
+
+    /* offsets of the fields in a row, the longs first to keep them aligned */
+    private static final int TIME = 0;
+    private static final int TEXT_ADDRESS = 8;
+    private static final int PID = 16;
+    private static final int TID = 20;
+    private static final int TAG = 24;
+    private static final int APP_NAME = 28;
+    private static final int THREAD_NAME = 32;
+    private static final int TEXT_LENGTH = 36;
+    private static final int LEVEL = 40;
+    private static final int SOURCE = 44;
+    static final int ROW_SIZE = 48;
+
+    /** the scratch file the buffers are mapped from, or null for direct buffers */
+    private final RandomAccessFile scratch;
+    /** only used by the loading thread */
+    private long scratchLength;
+
+    private volatile ByteBuffer[] segments = new ByteBuffer[16];
+    private volatile ByteBuffer[] pages = new ByteBuffer[16];
+    /** only used by the loading thread */
+    private int pageCount;
+    private int pagePosition;
+    /** a duplicate of the last page for writing, as the position of a buffer is not thread safe */
+    private ByteBuffer writePage;
+    private volatile long offHeapBytes;
+
+    /**
+     * @param mapped whether to map the buffers from a scratch file instead of allocating
+     *               direct buffers, which are limited by {@code -XX:MaxDirectMemorySize}
+     */
+    LogCatOffHeapStorage(boolean mapped) throws IOException {
+        if (mapped) {
+            final File file = File.createTempFile("logcat", ".store");
+            file.deleteOnExit();
+            scratch = new RandomAccessFile(file, "rw");
+        } else {
+            scratch = null;
+        }
+    }
+
+    /**
+     * Go on with the segments and pages mapped read only from an index file, see
+     * {@link LogCatIndexFile}, the rows and texts added after are kept in direct buffers.
+     * @param segments the full segments of the rows, the last one may be partly set,
+     *                 so it's copied for the rows added after
+     * @param pages the pages of the texts, they are not filled any more
+     */
+    LogCatOffHeapStorage(ByteBuffer[] segments, ByteBuffer[] pages, long mappedBytes) {
+        scratch = null;
+        offHeapBytes = mappedBytes;
+        final ByteBuffer[] segs = Arrays.copyOf(segments, Math.max(16, segments.length));
+        if (segments.length > 0) {
+            final ByteBuffer last = segments[segments.length - 1].duplicate();
+            last.clear();
+            segs[segments.length - 1] = allocate(last.capacity()).put(last);
+        }
+        this.segments = segs;
+        this.pages = Arrays.copyOf(pages, Math.max(16, pages.length));
+        pageCount = pages.length;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        final ByteBuffer buffer;
+        if (scratch == null) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        } else {
+            try {
+                // mapping past the end of the file grows the file
+                buffer = scratch.getChannel().map(FileChannel.MapMode.READ_WRITE, scratchLength, capacity);
+            } catch (IOException e) {
+                throw new IllegalStateException("can't map the scratch file", e);
+            }
+            scratchLength += capacity;
+        }
+        offHeapBytes += capacity;
+        return buffer;
+    }
+
+    @Override
+    void setRow(int row, byte level, int pid, int tid, long time, int tag, int appName,
+                int threadName, int source, long textAddress, int textLength) {
+        ByteBuffer[] segs = segments;
+        final int segment = row >>> SEGMENT_SHIFT;
+        if (segment >= segs.length) {
+            segs = Arrays.copyOf(segs, segs.length * 2);
+            segments = segs;
+        }
+        ByteBuffer seg = segs[segment];
+        if (seg == null) {
+            seg = allocate(SEGMENT_SIZE * ROW_SIZE);
+            segs[segment] = seg;
+        }
+        putRow(seg, (row & SEGMENT_MASK) * ROW_SIZE, level, pid, tid, time,
+                tag, appName, threadName, source, textAddress, textLength);
+    }
+
+    /**
+     * Put the fields of a row in the layout of a segment.
+     * @param base the offset of the row in the buffer
+     */
+    static void putRow(ByteBuffer seg, int base, byte level, int pid, int tid, long time, int tag,
+                       int appName, int threadName, int source, long textAddress, int textLength) {
+        seg.putLong(base + TIME, time);
+        seg.putLong(base + TEXT_ADDRESS, textAddress);
+        seg.putInt(base + PID, pid);
+        seg.putInt(base + TID, tid);
+        seg.putInt(base + TAG, tag);
+        seg.putInt(base + APP_NAME, appName);
+        seg.putInt(base + THREAD_NAME, threadName);
+        seg.putInt(base + TEXT_LENGTH, textLength);
+        seg.put(base + LEVEL, level);
+        seg.putInt(base + SOURCE, source);
+    }
+
+    private ByteBuffer segment(int row) {
+        return segments[row >>> SEGMENT_SHIFT];
+    }
+
+    private static int base(int row) {
+        return (row & SEGMENT_MASK) * ROW_SIZE;
+    }
+
+    @Override
+    byte getLevel(int row) {
+        return segment(row).get(base(row) + LEVEL);
+    }
+
+    @Override
+    int getPid(int row) {
+        return segment(row).getInt(base(row) + PID);
+    }
+
+    @Override
+    int getTid(int row) {
+        return segment(row).getInt(base(row) + TID);
+    }
+
+    @Override
+    long getTime(int row) {
+        return segment(row).getLong(base(row) + TIME);
+    }
+
+    @Override
+    int getTag(int row) {
+        return segment(row).getInt(base(row) + TAG);
+    }
+
+    @Override
+    int getAppName(int row) {
+        return segment(row).getInt(base(row) + APP_NAME);
+    }
+
+    @Override
+    int getThreadName(int row) {
+        return segment(row).getInt(base(row) + THREAD_NAME);
+    }
+
+    @Override
+    int getSource(int row) {
+        return segment(row).getInt(base(row) + SOURCE);
+    }
+
+    @Override
+    long getTextAddress(int row) {
+        return segment(row).getLong(base(row) + TEXT_ADDRESS);
+    }
+
+    @Override
+    int getTextLength(int row) {
+        return segment(row).getInt(base(row) + TEXT_LENGTH);
+    }
+
+    @Override
+    long addText(byte[] bytes, int length) {
+        ByteBuffer[] array = pages;
+        if (writePage == null || pagePosition + length > writePage.capacity()) {
+            if (pageCount >= array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            // a text longer than a page gets a page of its own
+            final ByteBuffer page = allocate(Math.max(PAGE_SIZE, length));
+            array[pageCount++] = page;
+            pages = array;
+            pagePosition = 0;
+            writePage = page.duplicate();
+        }
+        writePage.position(pagePosition);
+        writePage.put(bytes, 0, length);
+        final long address = ((long) (pageCount - 1) << 32) | pagePosition;
+        pagePosition += length;
+        return address;
+    }
+
+    @Override
+    String getText(long address, int length) {
+        final ByteBuffer page = pages[(int) (address >>> 32)].duplicate();
+        page.position((int) address);
+        final byte[] bytes = new byte[length];
+        page.get(bytes);
+        return LogCatLineSplitter.decode(bytes, 0, length);
+    }
+
+    @Override
+    long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse a log file on a fork-join pool. The file is memory-mapped and split into chunks,
+ * every chunk boundary is moved forward to the first line a fresh parser can start from
+ * (see {@link LogCatMessageParser#isChunkStart(String)}), so each chunk parsed by its own
+ * parser gives the same messages as the sequential path. Results are handed over in file order,
+ * batch by batch, while the later chunks are still being parsed.
+ * <p/>
+ * At most a few chunks are parsed ahead of the one being handed over, each into a bounded
+ * queue of batches, so the messages held while parsing don't grow with the file.
+ */
+final class LogCatParallelParser {
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final ForkJoinPool sPool = new ForkJoinPool(PARALLELISM);
+
+    /** chunks smaller than this are not worth a task */
+    private static final long MIN_CHUNK_SIZE = 4L * 1024L * 1024L;
+    /** keep each chunk well below the 2GB limit of a single mapping */
+    private static final long MAX_CHUNK_SIZE = 256L * 1024L * 1024L;
+    /** size of a mapped window while scanning lines */
+    private static final int WINDOW_SIZE = 32 * 1024 * 1024;
+    /** size of the bytes copied out of a window at once */
+    private static final int BLOCK_SIZE = 64 * 1024;
+    /** at most this many chunks are parsed at once, the one being handed over included */
+    private static final int CHUNKS_IN_FLIGHT = PARALLELISM + 1;
+    /** at most this many batches of a chunk wait to be handed over */
+    private static final int QUEUE_CAPACITY = 4;
+
+    private LogCatParallelParser() {
+    }
+
+    static void parse(File logFile, LogCatMessageParser prototype,
+                      LogCatMessageParser.ParseListener listener) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(logFile, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            parse(channel, channel.size(), prototype, listener);
+        } finally {
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Parse the bytes of the channel below end. The first chunk is parsed by the prototype
+     * itself and the others by new instances, at last the prototype takes over the state of
+     * the parser of the last chunk, so it ends up as if it had parsed all lines alone.
+     */
+    static void parse(FileChannel channel, long end, LogCatMessageParser prototype,
+                      LogCatMessageParser.ParseListener listener) throws IOException {
+        final List<ChunkTask> tasks = new ArrayList<>();
+        try {
+            final long[] bounds = split(channel, end, prototype);
+            for (int i = 0; i < bounds.length - 1; ++i) {
+                final LogCatMessageParser parser = i == 0 ? prototype : prototype.newInstance();
+                tasks.add(new ChunkTask(channel, bounds[i], bounds[i + 1], parser));
+            }
+            // hand over the batches in file order while the next chunks are parsing
+            LogCatMessage lastMessage = null;
+            int submitted = 0;
+            for (int k = 0; k < tasks.size(); ++k) {
+                while (submitted < tasks.size() && submitted < k + CHUNKS_IN_FLIGHT) {
+                    sPool.execute(tasks.get(submitted++));
+                }
+                final ChunkTask task = tasks.get(k);
+                Batch batch;
+                boolean first = true;
+                while ((batch = task.takeBatch()) != null) {
+                    if (batch.messages.isEmpty()) {
+                        continue;
+                    }
+                    if (first && lastMessage != null && prototype.isSameMessage(lastMessage, batch.messages.get(0))) {
+                        // the chunk starts in the middle of the last message of the chunk before
+                        batch.messages.get(0).setContinuation(true);
+                    }
+                    first = false;
+                    lastMessage = batch.messages.get(batch.messages.size() - 1);
+                    listener.onMessagesParsed(batch.messages, batch.parsedBytes, end);
+                }
+            }
+            final LogCatMessageParser last = tasks.get(tasks.size() - 1).parser;
+            if (last != prototype) {
+                prototype.copyStateFrom(last);
+            }
+            for (ChunkTask task : tasks) {
+                if (task.parser != prototype) {
+                    prototype.addDictionaryCounts(task.parser);
+                    prototype.addStats(task.parser);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("parsing interrupted");
+        } finally {
+            for (ChunkTask task : tasks) {
+                task.cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * @return ascending chunk bounds, the first is 0 and the last is size
+     */
+    private static long[] split(FileChannel channel, long size, LogCatMessageParser parser) throws IOException {
+        long chunkCount = Math.min(size / MIN_CHUNK_SIZE, PARALLELISM * 4L);
+        chunkCount = Math.max(chunkCount, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        chunkCount = Math.max(chunkCount, 1L);
+        final long[] bounds = new long[(int) chunkCount + 1];
+        int count = 0;
+        bounds[count++] = 0L;
+        for (long i = 1; i < chunkCount; ++i) {
+            final long bound = align(channel, size, size / chunkCount * i, parser);
+            if (bound > bounds[count - 1] && bound < size) {
+                bounds[count++] = bound;
+            }
+        }
+        bounds[count++] = size;
+        final long[] result = new long[count];
+        System.arraycopy(bounds, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Find the first line which starts at or after the given position and is a chunk start.
+     */
+    private static long align(FileChannel channel, long size, long position, final LogCatMessageParser parser)
+                                                throws IOException {
+        if (position <= 0L) {
+            return 0L;
+        }
+        final long[] found = new long[] { size };
+        // step back one byte, so a line starting exactly at position is seen as well
+        new LineScanner(channel, position - 1L, size) {
+            private boolean skippedPartialLine;
+
+            @Override
+            protected boolean onLine(long lineStart, long lineEnd, String line, boolean ascii) {
+                if (!skippedPartialLine) {
+                    skippedPartialLine = true;
+                    return true;
+                }
+                if (!line.isEmpty() && parser.isChunkStart(line)) {
+                    found[0] = lineStart;
+                    return false;
+                }
+                return true;
+            }
+        }.scan();
+        return found[0];
+    }
+
+    /**
+     * Point the messages parsed from a line at the bytes of their text in the file. The text
+     * of a message is the end of its line, so its bytes end where the line ends, unless
+     * the line is not valid UTF-8 and decoding it has replaced some bytes.
+     * @param lineEnd the offset of the line terminator
+     * @param ascii whether the line is ASCII, then the length of a text is its number of bytes
+     */
+    private static void setTextOffsets(List<LogCatMessage> messages, int from,
+                                       long lineStart, long lineEnd, String line, boolean ascii) {
+        if (!ascii && LogCatStore.utf8Length(line) != lineEnd - lineStart) {
+            return;
+        }
+        for (int i = from; i < messages.size(); ++i) {
+            final LogCatMessage message = messages.get(i);
+            final String text = message.getMessage();
+            if (line.endsWith(text)) {
+                message.setTextOffset(lineEnd - (ascii ? text.length() : LogCatStore.utf8Length(text)));
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #setTextOffsets}, for a line added to a message as a body line.
+     */
+    private static void setBodyLineOffset(LogCatMessage message, int index,
+                                          long lineStart, long lineEnd, String line, boolean ascii) {
+        if (!ascii && LogCatStore.utf8Length(line) != lineEnd - lineStart) {
+            return;
+        }
+        final String text = message.getBodyLine(index);
+        if (line.endsWith(text)) {
+            message.setBodyLineOffset(index, lineEnd - (ascii ? text.length() : LogCatStore.utf8Length(text)));
+        }
+    }
+
+    private static final class Batch {
+        final List<LogCatMessage> messages;
+        final long parsedBytes;
+
+        Batch(List<LogCatMessage> messages, long parsedBytes) {
+            this.messages = messages;
+            this.parsedBytes = parsedBytes;
+        }
+    }
+
+    private static final class ChunkTask extends RecursiveAction {
+        private static final Batch END = new Batch(null, 0L);
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final LogCatMessageParser parser;
+        private final BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile Throwable error;
+        volatile boolean cancelled;
+
+        ChunkTask(FileChannel channel, long start, long end, LogCatMessageParser parser) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.parser = parser;
+        }
+
+        /**
+         * @return the next batch of this chunk, or null if the chunk is done
+         */
+        Batch takeBatch() throws IOException, InterruptedException {
+            final Batch batch = batches.take();
+            if (batch != END) {
+                return batch;
+            }
+            batches.add(END);
+            final Throwable t = error;
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            } else if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            }
+            return null;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                new LineScanner(channel, start, end) {
+                    private int batchSize = LogCatMessageParser.FIRST_BATCH_SIZE;
+                    private List<LogCatMessage> messages = new ArrayList<>();
+
+                    @Override
+                    protected boolean onLine(long lineStart, long lineEnd, String line, boolean ascii) {
+                        if (!line.isEmpty()) {
+                            final int count = messages.size();
+                            final LogCatMessage last = count > 0 ? messages.get(count - 1) : null;
+                            final int bodyLines = last != null ? last.getBodyLineCount() : 0;
+                            parser.processLogLine(line, messages);
+                            if (messages.size() > count) {
+                                setTextOffsets(messages, count, lineStart, lineEnd, line, ascii);
+                            } else if (last != null && last.getBodyLineCount() > bodyLines) {
+                                setBodyLineOffset(last, bodyLines, lineStart, lineEnd, line, ascii);
+                            }
+                        }
+                        if (messages.size() >= batchSize) {
+                            parser.endBatch(messages);
+                            put(new Batch(messages, lineEnd));
+                            messages = new ArrayList<>();
+                            batchSize = LogCatMessageParser.nextBatchSize(batchSize);
+                        }
+                        return !cancelled;
+                    }
+
+                    @Override
+                    protected void onEnd() {
+                        parser.endBatch(messages);
+                        if (!messages.isEmpty()) {
+                            put(new Batch(messages, end));
+                        }
+                    }
+                }.scan();
+            } catch (Throwable t) {
+                error = t;
+            } finally {
+                put(END);
+            }
+        }
+
+        /**
+         * Queue a batch, blocking the worker while the queue is full, or do nothing once
+         * the parse is cancelled, then nothing takes the batches any more. The pool may
+         * start another worker meanwhile, at most a few chunks are submitted anyway.
+         */
+        private void put(final Batch batch) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        while (!cancelled && !batches.offer(batch, 100L, TimeUnit.MILLISECONDS)) {
+                            // check for a cancel now and then
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return cancelled || batches.offer(batch);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Walk the lines of a region of a file through mapped windows. Lines are terminated
+     * like {@link java.io.BufferedReader#readLine()} does: by '\n', '\r' or "\r\n".
+     * The bytes are copied block by block out of the window and scanned in the block, which
+     * also tells whether a line is ASCII on the way, see {@link LogCatLineSplitter#decode}.
+     */
+    private abstract static class LineScanner {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        /** the bytes being scanned, a line longer than it grows it */
+        private byte[] block = new byte[BLOCK_SIZE];
+
+        LineScanner(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @param ascii whether all bytes of the line are ASCII, so each char is a byte
+         * @return false to stop scanning
+         */
+        protected abstract boolean onLine(long lineStart, long lineEnd, String line, boolean ascii);
+
+        /**
+         * Called after the last line of the region, unless scanning was stopped.
+         */
+        protected void onEnd() {
+        }
+
+        final void scan() throws IOException {
+            MappedByteBuffer window = null;
+            long windowStart = start;
+            long windowEnd = start;
+            // the offset of block[0] in the file, and of the next byte to copy into the block
+            long blockStart = start;
+            long position = start;
+            int filled = 0;
+            while (true) {
+                if (position < end && filled < block.length) {
+                    if (position >= windowEnd) {
+                        windowStart = position;
+                        windowEnd = Math.min(end, windowStart + WINDOW_SIZE);
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+                    }
+                    final int count = (int) Math.min(block.length - filled, windowEnd - position);
+                    window.position((int) (position - windowStart));
+                    window.get(block, filled, count);
+                    filled += count;
+                    position += count;
+                }
+                final boolean last = position >= end;
+                final byte[] bytes = block;
+                int lineStart = 0;
+                int i = 0;
+                // negative once a byte of the line is not ASCII
+                int bits = 0;
+                while (i < filled) {
+                    final byte b = bytes[i];
+                    if (b != '\n' && b != '\r') {
+                        bits |= b;
+                        ++i;
+                        continue;
+                    }
+                    if (b == '\r' && i + 1 >= filled && !last) {
+                        // can't tell "\r\n" from '\r' yet, rescan this line with the next bytes
+                        break;
+                    }
+                    if (!onLine(blockStart + lineStart, blockStart + i,
+                                LogCatLineSplitter.decode(bytes, lineStart, i - lineStart, bits >= 0), bits >= 0)) {
+                        return;
+                    }
+                    if (b == '\r' && i + 1 < filled && bytes[i + 1] == '\n') {
+                        ++i;
+                    }
+                    lineStart = ++i;
+                    bits = 0;
+                }
+                if (last) {
+                    if (lineStart < filled && !onLine(blockStart + lineStart, blockStart + filled,
+                            LogCatLineSplitter.decode(bytes, lineStart, filled - lineStart, bits >= 0), bits >= 0)) {
+                        return;
+                    }
+                    break;
+                }
+                if (lineStart == 0 && filled == block.length) {
+                    // a single line longer than the block
+                    final byte[] larger = new byte[(int) Math.min(Integer.MAX_VALUE, block.length * 2L)];
+                    System.arraycopy(block, 0, larger, 0, filled);
+                    block = larger;
+                } else if (lineStart > 0) {
+                    System.arraycopy(bytes, lineStart, bytes, 0, filled - lineStart);
+                    filled -= lineStart;
+                    blockStart += lineStart;
+                }
+            }
+            onEnd();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a parser has seen of a load: the longest line of text, the lines and messages of each
+ * level, the text size of each tag, the lines which are not of the format, and how fast
+ * the log was parsed.
+ * <p/>
+ * Each parser counts into its own statistics, once per batch, see
+ * {@link LogCatMessageParser#getStats()}. The parsers of the chunks, entries or files of a load
+ * run on threads of their own, and their statistics are added to the ones of the parser given
+ * to the load when they are done, so nothing is shared while parsing. The methods are
+ * synchronized, so the statistics can be read while a load goes on.
+ * <p/>
+ * A load from a sidecar doesn't parse the log, the statistics of the parse are kept in the
+ * sidecar instead, see {@link LogCatIndexFile}.
+ */
+public final class LogCatParseStats {
+    private static final LogLevel[] LEVELS = LogLevel.values();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long[] lines = new long[LEVELS.length];
+    private final long[] messages = new long[LEVELS.length];
+    /** the text size of each tag, in a box so it's updated without boxing a new Long */
+    private final HashMap<String, long[]> tagSizes = new HashMap<>();
+    private long malformedLines;
+    private String maxLengthMessage = "";
+    private long parsedBytes;
+    private long parseMillis;
+
+    /**
+     * Count the messages of a batch and all their lines.
+     */
+    synchronized void addMessages(List<LogCatMessage> list) {
+        String longest = maxLengthMessage;
+        String lastTag = null;
+        long[] lastSize = null;
+        for (LogCatMessage message : list) {
+            final LogLevel level = message.getLogLevel();
+            final int bodyLines = message.getBodyLineCount();
+            if (level != null) {
+                lines[level.ordinal()] += 1 + bodyLines;
+                if (!message.isContinuation()) {
+                    ++messages[level.ordinal()];
+                }
+            }
+            String text = message.getMessage();
+            long size = text.length();
+            if (text.length() > longest.length()) {
+                longest = text;
+            }
+            for (int i = 0; i < bodyLines; ++i) {
+                text = message.getBodyLine(i);
+                size += text.length();
+                if (text.length() > longest.length()) {
+                    longest = text;
+                }
+            }
+            // the tags are shared instances, and mostly the same as the message before
+            final String tag = message.getTag();
+            if (tag != lastTag) {
+                lastTag = tag;
+                lastSize = tagSizes.get(tag);
+                if (lastSize == null) {
+                    lastSize = new long[1];
+                    tagSizes.put(tag, lastSize);
+                }
+            }
+            lastSize[0] += size;
+        }
+        maxLengthMessage = longest;
+    }
+
+    synchronized void addMalformedLines(int count) {
+        malformedLines += count;
+    }
+
+    /**
+     * Add the statistics of a parser of another part of the same load.
+     */
+    void add(LogCatParseStats other) {
+        final long[] otherLines;
+        final long[] otherMessages;
+        final Map<String, Long> otherSizes;
+        final long otherMalformed;
+        final String otherLongest;
+        synchronized (other) {
+            otherLines = other.lines.clone();
+            otherMessages = other.messages.clone();
+            otherSizes = other.getTagSizes();
+            otherMalformed = other.malformedLines;
+            otherLongest = other.maxLengthMessage;
+        }
+        synchronized (this) {
+            for (int i = 0; i < LEVELS.length; ++i) {
+                lines[i] += otherLines[i];
+                messages[i] += otherMessages[i];
+            }
+            for (Map.Entry<String, Long> entry : otherSizes.entrySet()) {
+                long[] size = tagSizes.get(entry.getKey());
+                if (size == null) {
+                    size = new long[1];
+                    tagSizes.put(entry.getKey(), size);
+                }
+                size[0] += entry.getValue();
+            }
+            malformedLines += otherMalformed;
+            if (otherLongest.length() > maxLengthMessage.length()) {
+                maxLengthMessage = otherLongest;
+            }
+        }
+    }
+
+    /**
+     * Write the counts, the tag sizes and the longest line, not the time of the load.
+     */
+    synchronized void write(DataOutputStream output) throws IOException {
+        output.writeInt(LEVELS.length);
+        for (int i = 0; i < LEVELS.length; ++i) {
+            output.writeLong(lines[i]);
+            output.writeLong(messages[i]);
+        }
+        output.writeLong(malformedLines);
+        writeString(output, maxLengthMessage);
+        output.writeInt(tagSizes.size());
+        for (Map.Entry<String, long[]> entry : tagSizes.entrySet()) {
+            writeString(output, entry.getKey());
+            output.writeLong(entry.getValue()[0]);
+        }
+    }
+
+    /**
+     * @return the statistics written by {@link #write(DataOutputStream)}
+     */
+    static LogCatParseStats read(DataInputStream input) throws IOException {
+        final LogCatParseStats stats = new LogCatParseStats();
+        if (input.readInt() != LEVELS.length) {
+            throw new IOException("bad level count");
+        }
+        for (int i = 0; i < LEVELS.length; ++i) {
+            stats.lines[i] = input.readLong();
+            stats.messages[i] = input.readLong();
+        }
+        stats.malformedLines = input.readLong();
+        stats.maxLengthMessage = readString(input);
+        final int tagCount = input.readInt();
+        for (int i = 0; i < tagCount; ++i) {
+            stats.tagSizes.put(readString(input), new long[]{input.readLong()});
+        }
+        return stats;
+    }
+
+    // not writeUTF, which is limited to 64K bytes
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Set how long the load took, the parser doesn't know where its lines come from.
+     * @param bytes the size of the log, or of the compressed log
+     */
+    public synchronized void setParseTime(long bytes, long millis) {
+        parsedBytes = bytes;
+        parseMillis = millis;
+    }
+
+    /**
+     * @return the longest line of text, for the width of the text column
+     */
+    public synchronized String getMaxLengthMessage() {
+        return maxLengthMessage;
+    }
+
+    public synchronized long getLineCount(LogLevel level) {
+        return lines[level.ordinal()];
+    }
+
+    public synchronized long getMessageCount(LogLevel level) {
+        return messages[level.ordinal()];
+    }
+
+    public synchronized long getLineCount() {
+        long count = 0L;
+        for (long n : lines) {
+            count += n;
+        }
+        return count;
+    }
+
+    public synchronized long getMessageCount() {
+        long count = 0L;
+        for (long n : messages) {
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * @return the lines left out as they are neither a header of the format nor a line
+     * of a message, like the lines of another format or the cut line at the head of a log
+     */
+    public synchronized long getMalformedLineCount() {
+        return malformedLines;
+    }
+
+    /**
+     * @return the size of the text of all lines of each tag, in chars, which are the bytes
+     * of ASCII text, without the headers
+     */
+    public synchronized Map<String, Long> getTagSizes() {
+        final Map<String, Long> sizes = new HashMap<>(tagSizes.size() * 2);
+        for (Map.Entry<String, long[]> entry : tagSizes.entrySet()) {
+            sizes.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return sizes;
+    }
+
+    /**
+     * @return the tags of the most text first, at most count of them
+     */
+    public List<Map.Entry<String, Long>> getLargestTags(int count) {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>(getTagSizes().entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        return entries.subList(0, Math.min(count, entries.size()));
+    }
+
+    public synchronized long getParsedBytes() {
+        return parsedBytes;
+    }
+
+    public synchronized long getParseMillis() {
+        return parseMillis;
+    }
+
+    /**
+     * @return the bytes parsed per second, or -1 if the time of the load is not known
+     */
+    public synchronized long getBytesPerSecond() {
+        if (parseMillis <= 0L) {
+            return -1L;
+        }
+        return parsedBytes * 1000L / parseMillis;
+    }
+
+    /**
+     * @return the statistics as lines of text, with the given number of the largest tags
+     */
+    public String describe(int tagCount) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Lines: ").append(getLineCount())
+                .append(", messages: ").append(getMessageCount()).append('\n');
+        for (LogLevel level : LEVELS) {
+            sb.append("  ").append(level.getStringValue()).append(": ")
+                    .append(getLineCount(level)).append(" lines, ")
+                    .append(getMessageCount(level)).append(" messages\n");
+        }
+        sb.append("Malformed lines: ").append(getMalformedLineCount()).append('\n');
+        sb.append("Longest line: ").append(getMaxLengthMessage().length()).append(" chars\n");
+        final long bytesPerSecond = getBytesPerSecond();
+        if (bytesPerSecond >= 0L) {
+            sb.append("Parsed ").append(getParsedBytes() >> 10).append(" KB in ").append(getParseMillis())
+                    .append(" ms, ").append(bytesPerSecond >> 20).append(" MB/s\n");
+        }
+        sb.append("Largest tags:\n");
+        for (Map.Entry<String, Long> entry : getLargestTags(tagCount)) {
+            sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append(" chars\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+/**
+ * Where a {@link LogCatStore} keeps the encoded fields of its rows and the bytes of the
+ * texts, on the heap or off the heap. The store encodes and decodes the fields, the storage
+ * just keeps them.
+ * <p/>
+ * One loading thread sets the rows in order, from 0, and adds texts, while any thread reads
+ * the rows the store has published.
+ */
+abstract class LogCatRowStorage {
+    static final int SEGMENT_SHIFT = 14;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Set the fields of the row, which is the row after the last one set.
+     * @param textAddress returned by {@link #addText(byte[], int)}, or a negative address
+     *                    the store keeps for itself
+     */
+    abstract void setRow(int row, byte level, int pid, int tid, long time, int tag, int appName,
+                         int threadName, int source, long textAddress, int textLength);
+
+    abstract byte getLevel(int row);
+
+    abstract int getPid(int row);
+
+    abstract int getTid(int row);
+
+    abstract long getTime(int row);
+
+    abstract int getTag(int row);
+
+    abstract int getAppName(int row);
+
+    abstract int getThreadName(int row);
+
+    abstract int getSource(int row);
+
+    abstract long getTextAddress(int row);
+
+    abstract int getTextLength(int row);
+
+    /**
+     * @return the address of the first length bytes copied in, not negative
+     */
+    abstract long addText(byte[] bytes, int length);
+
+    /**
+     * @param address returned by {@link #addText(byte[], int)}
+     */
+    abstract String getText(long address, int length);
+
+    /**
+     * @return the bytes allocated off the heap
+     */
+    long getOffHeapBytes() {
+        return 0L;
+    }
+}
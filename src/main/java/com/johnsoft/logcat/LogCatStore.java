@@ -0,0 +1,516 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Append-only table of log messages, kept column by column in primitive arrays instead of
+ * one {@link LogCatMessage} with eight strings per row:
+ * <ul>
+ *     <li>level: the ordinal of the {@link LogLevel} and flags for body only and continuation rows, a byte</li>
+ *     <li>pid, tid: the number, an int</li>
+ *     <li>time: the timestamp, see {@link LogCatTime}, a long</li>
+ *     <li>tag, application, thread, source: the id of the string in a {@link LogCatDictionary}, an int</li>
+ *     <li>text: UTF-8 bytes packed in pages, addressed by a long and an int</li>
+ * </ul>
+ * Each line of a message is a row, the rows after the first are continuation rows which share
+ * its header, see {@link #isContinuation(int)}, so a message of several lines is shown line by
+ * line or as one record, and checked by filters once, see {@link #getRecordEnd(int, int)}.
+ * After {@link #openTextSource(File)}, the text of a row parsed from that file is not kept,
+ * only the offset and length of its bytes in the file, and it's read again when needed,
+ * or kept as it was read if the file is truncated since, see {@link #truncateTextSource()}.
+ * A pid, tid or time which can't be turned back into the same text from its number, like
+ * "?" or a fraction of second with other than three digits, is kept in a dictionary too.
+ * <p/>
+ * The rows are kept on the heap, or off the heap after {@link #useOffHeapStorage(boolean)}.
+ * <p/>
+ * One loading thread appends while any thread reads the rows below a {@link #size()} it
+ * has seen. Rows live in fixed size segments, so appending never copies or moves
+ * the published rows.
+ */
+public final class LogCatStore {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final LogLevel[] LEVELS = LogLevel.values();
+
+    private static final byte LEVEL_MASK = 0x0F;
+    private static final byte BODY_ONLY = 0x10;
+    private static final byte CONTINUATION = 0x20;
+    /** a pid or tid of an empty text */
+    private static final int NO_NUMBER = -1;
+    private static final int MAX_NUMBER_LENGTH = 9;
+
+    private static final long HALF_YEAR = LogCatTime.MILLIS_PER_YEAR / 2L;
+
+    private final LogCatDictionary tags = new LogCatDictionary();
+    private final LogCatDictionary appNames = new LogCatDictionary();
+    private final LogCatDictionary threadNames = new LogCatDictionary();
+    private final LogCatDictionary sources = new LogCatDictionary();
+    /** texts of pid, tid and time which are not kept as numbers */
+    private final LogCatDictionary others = new LogCatDictionary();
+
+    private volatile LogCatTextSource textSource;
+    private volatile LogCatRowStorage storage = new LogCatHeapStorage();
+    /** the UTF-8 bytes of the text being added, only used by the loading thread */
+    private byte[] textBuffer = new byte[1024];
+    /** written after the rows, so reading it first publishes them */
+    private volatile int size;
+
+    /*
+     * Logcat prints no year, the first row is taken as of the current year, and the year goes on
+     * when the time goes back more than half a year. Only used by the loading thread.
+     */
+    private long year = Calendar.getInstance().get(Calendar.YEAR);
+    private long lastTimeOfYear = -1L;
+    private long maxTimestamp = -1L;
+    /** whether the timestamps of the rows having one are ascending */
+    private volatile boolean timeSorted = true;
+
+    /** should call this method from the loading thread only */
+    public void addAll(List<LogCatMessage> list) {
+        int n = size;
+        for (LogCatMessage message : list) {
+            n = add(n, message);
+        }
+        size = n;
+    }
+
+    /** should call this method from the loading thread only */
+    public void add(LogCatMessage message) {
+        size = add(size, message);
+    }
+
+    /**
+     * Add a row for each line of the message, the header is encoded once for all of them.
+     * @return the row after the last row of the message
+     */
+    private int add(int row, LogCatMessage message) {
+        final byte level = (byte) message.getLogLevel().ordinal();
+        final int pid = encodeNumber(message.getPid());
+        final int tid = encodeNumber(message.getTid());
+        final long time = encodeTime(message.getTime());
+        final int tag = tags.intern(message.getTag());
+        final int appName = appNames.intern(message.getAppName());
+        final int threadName = threadNames.intern(message.getThreadName());
+        final int source = sources.intern(message.getSource());
+        byte flags = message.isOnlyBody() ? (byte) (level | BODY_ONLY) : level;
+        if (message.isContinuation()) {
+            flags |= CONTINUATION;
+        }
+        addRow(row, flags, pid, tid, time, tag, appName, threadName, source,
+                message.getMessage(), message.getTextOffset());
+        final int bodyLines = message.getBodyLineCount();
+        if (bodyLines > 0) {
+            flags = (byte) (level | CONTINUATION);
+            if (message.isBodyLinesOnlyBody()) {
+                flags |= BODY_ONLY;
+            }
+            for (int i = 0; i < bodyLines; ++i) {
+                addRow(row + 1 + i, flags, pid, tid, time, tag, appName, threadName, source,
+                        message.getBodyLine(i), message.getBodyLineOffset(i));
+            }
+        }
+        return row + 1 + bodyLines;
+    }
+
+    private void addRow(int row, byte flags, int pid, int tid, long time, int tag, int appName,
+                        int threadName, int source, String text, long textOffset) {
+        final long textAddress;
+        final int textLength;
+        if (textSource != null && textOffset >= 0L) {
+            textAddress = -textOffset - 1L;
+            textLength = utf8Length(text);
+        } else {
+            textLength = encodeText(text);
+            textAddress = storage.addText(textBuffer, textLength);
+        }
+        storage.setRow(row, flags, pid, tid, time, tag, appName, threadName, source, textAddress, textLength);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Keep only where the texts are in the file for the rows added after, see
+     * {@link LogCatMessage#getTextOffset()}, should call this method from the loading thread.
+     */
+    public void openTextSource(File file) throws IOException {
+        if (textSource != null) {
+            throw new IllegalStateException("text source is open already");
+        }
+        textSource = new LogCatTextSource(file);
+    }
+
+    /**
+     * Stop reading the texts from the file of the text source, as it's truncated and the bytes
+     * at the offsets of the rows are not theirs any more. The texts of the rows are then the
+     * ones still cached, or empty, see {@link LogCatTextSource#truncate()}.
+     */
+    public void truncateTextSource() {
+        final LogCatTextSource source = textSource;
+        if (source != null) {
+            source.truncate();
+        }
+    }
+
+    /**
+     * Keep the rows off the heap, should call this method from the loading thread before
+     * adding any row.
+     * @param mapped whether to map the memory from a scratch file, instead of allocating
+     *               direct buffers, which are limited by {@code -XX:MaxDirectMemorySize}
+     */
+    public void useOffHeapStorage(boolean mapped) throws IOException {
+        if (size > 0) {
+            throw new IllegalStateException("rows are added already");
+        }
+        storage = new LogCatOffHeapStorage(mapped);
+    }
+
+    /**
+     * @return the bytes of the rows kept off the heap
+     */
+    public long getOffHeapBytes() {
+        return storage.getOffHeapBytes();
+    }
+
+    /* The row of the getters below should be below a size returned by size(). */
+
+    public LogLevel getLogLevel(int row) {
+        return LEVELS[storage.getLevel(row) & LEVEL_MASK];
+    }
+
+    /**
+     * @return the ordinal of the level of the row, see {@link LogLevel}, the levels are in
+     *          the order of their priority, so a level can be compared without the enum
+     */
+    public int getLogLevelOrdinal(int row) {
+        return storage.getLevel(row) & LEVEL_MASK;
+    }
+
+    /**
+     * @return true if the row is a body line following the previous row, see
+     *          {@link LogCatMessage#isOnlyBody()}
+     */
+    public boolean isOnlyBody(int row) {
+        return (storage.getLevel(row) & BODY_ONLY) != 0;
+    }
+
+    /**
+     * @return true if the row is a line of the message of the row before, a body line or
+     *          the continuation of a message, see {@link LogCatMessage#isContinuation()}
+     */
+    public boolean isContinuation(int row) {
+        return (storage.getLevel(row) & CONTINUATION) != 0;
+    }
+
+    /**
+     * @return the first row of the message of the row
+     */
+    public int getRecordStart(int row) {
+        while (row > 0 && isContinuation(row)) {
+            --row;
+        }
+        return row;
+    }
+
+    /**
+     * @param limit a size returned by {@link #size()} or below, the message may go on after it
+     * @return the row after the last row of the message starting at the row, or the limit
+     */
+    public int getRecordEnd(int row, int limit) {
+        ++row;
+        while (row < limit && isContinuation(row)) {
+            ++row;
+        }
+        return row;
+    }
+
+    /**
+     * @return the pid, or -1 if the pid is not a number
+     */
+    public int getPidValue(int row) {
+        return Math.max(NO_NUMBER, storage.getPid(row));
+    }
+
+    public String getPid(int row) {
+        return decodeNumber(storage.getPid(row));
+    }
+
+    /**
+     * @return the tid, or -1 if the tid is not a number
+     */
+    public int getTidValue(int row) {
+        return Math.max(NO_NUMBER, storage.getTid(row));
+    }
+
+    public String getTid(int row) {
+        return decodeNumber(storage.getTid(row));
+    }
+
+    /**
+     * @return the timestamp, see {@link LogCatTime}, or -1 if the time is not of the format
+     *          "MM-dd HH:mm:ss.SSS"
+     */
+    public long getTimeValue(int row) {
+        return Math.max(-1L, storage.getTime(row));
+    }
+
+    public String getTime(int row) {
+        return decodeTime(storage.getTime(row));
+    }
+
+    /**
+     * @return true if the timestamps of the rows having one are ascending, so they can be
+     *          searched by binary search, otherwise see {@link LogCatTimeIndex}
+     */
+    public boolean isTimeSorted() {
+        return timeSorted;
+    }
+
+    public int getTagId(int row) {
+        return storage.getTag(row);
+    }
+
+    public String getTag(int row) {
+        return tags.get(getTagId(row));
+    }
+
+    public int getAppNameId(int row) {
+        return storage.getAppName(row);
+    }
+
+    public String getAppName(int row) {
+        return appNames.get(getAppNameId(row));
+    }
+
+    public int getThreadNameId(int row) {
+        return storage.getThreadName(row);
+    }
+
+    public String getThreadName(int row) {
+        return threadNames.get(getThreadNameId(row));
+    }
+
+    public int getSourceId(int row) {
+        return storage.getSource(row);
+    }
+
+    /**
+     * @return the name of the log file of the row, or empty if there is one log file
+     */
+    public String getSource(int row) {
+        return sources.get(getSourceId(row));
+    }
+
+    public String getMessage(int row) {
+        final LogCatRowStorage rows = storage;
+        final long address = rows.getTextAddress(row);
+        if (address < 0L) {
+            return textSource.read(-address - 1L, rows.getTextLength(row));
+        }
+        return rows.getText(address, rows.getTextLength(row));
+    }
+
+    public LogCatDictionary getTags() {
+        return tags;
+    }
+
+    public LogCatDictionary getAppNames() {
+        return appNames;
+    }
+
+    public LogCatDictionary getThreadNames() {
+        return threadNames;
+    }
+
+    public LogCatDictionary getSources() {
+        return sources;
+    }
+
+    /* For LogCatIndexFile, which saves and restores the rows. */
+
+    LogCatDictionary getOthers() {
+        return others;
+    }
+
+    LogCatRowStorage getStorage() {
+        return storage;
+    }
+
+    boolean hasTextSource() {
+        return textSource != null;
+    }
+
+    long getYear() {
+        return year;
+    }
+
+    long getLastTimeOfYear() {
+        return lastTimeOfYear;
+    }
+
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * Take the rows of the storage, whose strings are interned in the dictionaries of this store
+     * already, should call this method from the loading thread before adding any row.
+     */
+    void restore(LogCatRowStorage storage, int size, long year, long lastTimeOfYear,
+                 long maxTimestamp, boolean timeSorted) {
+        if (this.size > 0) {
+            throw new IllegalStateException("rows are added already");
+        }
+        this.storage = storage;
+        this.year = year;
+        this.lastTimeOfYear = lastTimeOfYear;
+        this.maxTimestamp = maxTimestamp;
+        this.timeSorted = timeSorted;
+        this.size = size;
+    }
+
+    /**
+     * Put the UTF-8 bytes of the text in {@link #textBuffer}.
+     * @return the number of bytes
+     */
+    private int encodeText(String text) {
+        final int length = text.length();
+        byte[] buffer = textBuffer;
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+            textBuffer = buffer;
+        }
+        for (int k = 0; k < length; ++k) {
+            final char c = text.charAt(k);
+            if (c >= 0x80) {
+                final byte[] bytes = text.getBytes(UTF_8);
+                if (buffer.length < bytes.length) {
+                    textBuffer = bytes;
+                } else {
+                    System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+                }
+                return bytes.length;
+            }
+            buffer[k] = (byte) c;
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of bytes of the text in UTF-8
+     */
+    static int utf8Length(String text) {
+        final int length = text.length();
+        int count = length;
+        for (int k = 0; k < length; ++k) {
+            final char c = text.charAt(k);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    ++count;
+                } else if (Character.isHighSurrogate(c) && k + 1 < length
+                        && Character.isLowSurrogate(text.charAt(k + 1))) {
+                    // 4 bytes for the pair
+                    count += 2;
+                    ++k;
+                } else {
+                    // 3 bytes, an unpaired surrogate is replaced by '?'
+                    count += Character.isSurrogate(c) ? 0 : 2;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number, -1 for an empty text, or -(id + 2) of the text in {@link #others}
+     */
+    private int encodeNumber(String text) {
+        final int length = text.length();
+        if (length == 0) {
+            return NO_NUMBER;
+        }
+        // no sign and no leading zero, so the number gives back the same text
+        if (length <= MAX_NUMBER_LENGTH && (text.charAt(0) != '0' || length == 1)) {
+            int value = 0;
+            int k = 0;
+            for (; k < length; ++k) {
+                final char c = text.charAt(k);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (k == length) {
+                return value;
+            }
+        }
+        return -(others.intern(text) + 2);
+    }
+
+    private String decodeNumber(int value) {
+        if (value >= 0) {
+            return Integer.toString(value);
+        } else if (value == NO_NUMBER) {
+            return "";
+        } else {
+            return others.get(-value - 2);
+        }
+    }
+
+    /**
+     * @return the timestamp of "MM-dd HH:mm:ss.SSS", see {@link LogCatTime},
+     *          otherwise -(id + 2) of the text in {@link #others}
+     */
+    private long encodeTime(String text) {
+        final long timeOfYear = LogCatTime.parseTimeOfYear(text);
+        if (timeOfYear < 0L) {
+            return -(others.intern(text) + 2);
+        }
+        long year = this.year;
+        if (lastTimeOfYear >= 0L && timeOfYear < lastTimeOfYear - HALF_YEAR) {
+            // rolled over to the next year
+            ++year;
+            this.year = year;
+            lastTimeOfYear = timeOfYear;
+        } else if (lastTimeOfYear >= 0L && timeOfYear > lastTimeOfYear + HALF_YEAR) {
+            // a late line of the last year, after the rollover
+            --year;
+        } else {
+            lastTimeOfYear = timeOfYear;
+        }
+        final long timestamp = year * LogCatTime.MILLIS_PER_YEAR + timeOfYear;
+        if (timestamp < maxTimestamp) {
+            timeSorted = false;
+        } else {
+            maxTimestamp = timestamp;
+        }
+        return timestamp;
+    }
+
+    private String decodeTime(long value) {
+        if (value < 0L) {
+            return others.get((int) (-value - 2));
+        }
+        return LogCatTime.format(value);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Parse a stream of log lines as it comes, like the standard input or the output of
+ * {@code adb logcat -v threadtime}. A reading thread splits the stream into lines and
+ * hands them to the parsing thread through a bounded queue. When parsing falls behind,
+ * the reading thread blocks, and so does the writer of a pipe, instead of buffering
+ * a burst of output without limit.
+ */
+public final class LogCatStreamParser {
+    private static final int READ_SIZE = 64 * 1024;
+    /** at most this many batches of lines wait for the parser */
+    private static final int QUEUE_CAPACITY = 16;
+    private static final List<String> END = new ArrayList<>();
+
+    private final InputStream input;
+    private final LogCatMessageParser parser;
+    private final BlockingQueue<List<String>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile Throwable error;
+    private volatile long readBytes;
+
+    public LogCatStreamParser(InputStream input, LogCatMessageParser parser) {
+        this.input = input;
+        this.parser = parser;
+    }
+
+    /**
+     * Parse on the calling thread until the end of the stream. The listener gets the
+     * messages of all lines arrived so far whenever the parser catches up with the stream.
+     * The total bytes passed to the listener is unknown, so it's -1.
+     */
+    public void parse(LogCatMessageParser.ParseListener listener) throws IOException {
+        final Thread reader = new Thread("Read-Stream-Thread") {
+            @Override
+            public void run() {
+                read();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            final List<List<String>> batches = new ArrayList<>();
+            boolean end = false;
+            while (!end) {
+                batches.add(queue.take());
+                queue.drainTo(batches);
+                final List<LogCatMessage> messages = new ArrayList<>();
+                for (List<String> lines : batches) {
+                    if (lines == END) {
+                        end = true;
+                        break;
+                    }
+                    for (String line : lines) {
+                        if (!line.isEmpty()) {
+                            parser.processLogLine(line, messages);
+                        }
+                    }
+                }
+                batches.clear();
+                parser.endBatch(messages);
+                listener.onMessagesParsed(messages, readBytes, -1L);
+            }
+        } catch (InterruptedException e) {
+            reader.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("parsing interrupted");
+        }
+        final Throwable t = error;
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+    }
+
+    private void read() {
+        final LogCatLineSplitter splitter = new LogCatLineSplitter();
+        final byte[] buffer = new byte[READ_SIZE];
+        try {
+            int n;
+            while ((n = input.read(buffer)) >= 0) {
+                readBytes += n;
+                final List<String> lines = new ArrayList<>();
+                splitter.feed(buffer, 0, n, lines);
+                if (!lines.isEmpty()) {
+                    // blocks while the parser is behind
+                    queue.put(lines);
+                }
+            }
+            final String line = splitter.finish();
+            if (line != null) {
+                final List<String> lines = new ArrayList<>(1);
+                lines.add(line);
+                queue.put(lines);
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+            }
+        }
+        try {
+            queue.put(END);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
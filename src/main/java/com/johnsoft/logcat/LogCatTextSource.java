@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read the texts of messages from the log file they were parsed from, by the offset and
+ * length of their UTF-8 bytes. The last decoded texts are kept, for the rows being shown
+ * again while scrolling, and so are the last blocks read, for scanning the rows in order.
+ * <p/>
+ * The file is read with positional reads instead of being mapped, so a file truncated
+ * while it's followed gives short texts instead of faults on pages no longer mapped.
+ * Once the file is known to be truncated, see {@link #truncate()}, it's not read any more,
+ * so the texts are not taken from the bytes written after at the same offsets.
+ * <p/>
+ * Thread safe, the caches are locked only to look up and to keep, the file is read and
+ * the texts are decoded outside the lock, so the rows can be scanned by several threads.
+ */
+final class LogCatTextSource {
+    private static final int TEXT_CACHE_SIZE = 4096;
+    private static final int BLOCK_SHIFT = 16;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_CACHE_SIZE = 16;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    /** the bytes of the texts are gone, only the cached ones are left */
+    private volatile boolean truncated;
+
+    /** decoded texts by file offset, the least recently used first */
+    private final Map<Long, String> texts = new LinkedHashMap<Long, String>(TEXT_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            return size() > TEXT_CACHE_SIZE;
+        }
+    };
+    /** blocks by block index, the least recently used first */
+    private final Map<Long, byte[]> blocks = new LinkedHashMap<Long, byte[]>(BLOCK_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > BLOCK_CACHE_SIZE;
+        }
+    };
+
+    LogCatTextSource(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+    }
+
+    String read(long offset, int length) {
+        final Long key = offset;
+        synchronized (this) {
+            final String text = texts.get(key);
+            if (text != null) {
+                return text;
+            }
+        }
+        final String text = decode(offset, length);
+        synchronized (this) {
+            texts.put(key, text);
+        }
+        return text;
+    }
+
+    private String decode(long offset, int length) {
+        try {
+            final long blockIndex = offset >>> BLOCK_SHIFT;
+            final int start = (int) (offset & (BLOCK_SIZE - 1));
+            if (start + length <= BLOCK_SIZE) {
+                final byte[] block = block(blockIndex);
+                if (start >= block.length) {
+                    // the block ends before the text, the file is shorter now
+                    return "";
+                }
+                return LogCatLineSplitter.decode(block, start, Math.min(length, block.length - start));
+            }
+            if (truncated) {
+                return "";
+            }
+            // a text across blocks is read on its own
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            read(buffer, offset);
+            return LogCatLineSplitter.decode(buffer.array(), 0, buffer.position());
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * @return the bytes of the block, shorter than a block at the end of the file
+     */
+    private byte[] block(long blockIndex) throws IOException {
+        final Long key = blockIndex;
+        synchronized (this) {
+            final byte[] block = blocks.get(key);
+            if (block != null) {
+                return block;
+            }
+        }
+        if (truncated) {
+            return NO_BYTES;
+        }
+        // two threads may read the same block, both get the same bytes
+        final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        read(buffer, blockIndex << BLOCK_SHIFT);
+        final byte[] block;
+        if (buffer.position() < BLOCK_SIZE) {
+            block = new byte[buffer.position()];
+            System.arraycopy(buffer.array(), 0, block, 0, block.length);
+        } else {
+            block = buffer.array();
+        }
+        synchronized (this) {
+            blocks.put(key, block);
+        }
+        return block;
+    }
+
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stop reading the file, the texts are the cached ones from now on, or empty.
+     */
+    void truncate() {
+        truncated = true;
+    }
+
+    synchronized void close() {
+        try {
+            raf.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+/**
+ * Timestamps of log messages as numbers. Logcat prints no year, so a timestamp is
+ * {@code year * MILLIS_PER_YEAR + millisecond of the year}, where every year has 366 days.
+ * It's not the milliseconds since the epoch, but it orders the messages like the time
+ * does, and it gives back the printed time exactly, February 29th included.
+ */
+public final class LogCatTime {
+    public static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+    public static final long MILLIS_PER_YEAR = 366L * MILLIS_PER_DAY;
+
+    /** days before the first day of each month in a leap year */
+    private static final int[] DAYS_BEFORE_MONTH = {
+            0, 31, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335, 366
+    };
+
+    private LogCatTime() {
+    }
+
+    /**
+     * A time typed by the user, like "12:59", "12:59:09.5" or "06-06 12:59:09".
+     */
+    public static final class Point {
+        /** the millisecond of the year if {@link #hasDate}, otherwise the millisecond of the day */
+        public final long millis;
+        public final boolean hasDate;
+
+        Point(long millis, boolean hasDate) {
+            this.millis = millis;
+            this.hasDate = hasDate;
+        }
+    }
+
+    /**
+     * Parse "[MM-dd ]HH:mm[:ss[.S]]", the date may also be followed by 'T' instead of a space.
+     * @param last whether to take the last millisecond the text stands for, like
+     *             12:59:59.999 for "12:59", instead of the first one
+     * @return the point, or null if the text is not a time
+     */
+    public static Point parse(String text, boolean last) {
+        text = text.trim();
+        int month = 0;
+        int day = 0;
+        boolean hasDate = false;
+        int i = 0;
+        if (text.length() > 5 && text.charAt(2) == '-') {
+            month = digits(text, 0, 2);
+            day = digits(text, 3, 2);
+            final char separator = text.charAt(5);
+            if (month < 1 || month > 12 || day < 1 || day > daysOfMonth(month)
+                    || (separator != ' ' && separator != 'T')) {
+                return null;
+            }
+            hasDate = true;
+            i = 6;
+        }
+        // hour and minute are required
+        if (text.length() < i + 5 || text.charAt(i + 2) != ':') {
+            return null;
+        }
+        final int hour = digits(text, i, 2);
+        final int minute = digits(text, i + 3, 2);
+        i += 5;
+        int second = 0;
+        int millis = 0;
+        long precision = 60L * 1000L;
+        if (i < text.length()) {
+            if (text.length() < i + 3 || text.charAt(i) != ':') {
+                return null;
+            }
+            second = digits(text, i + 1, 2);
+            i += 3;
+            precision = 1000L;
+            if (i < text.length()) {
+                final int count = text.length() - i - 1;
+                if (text.charAt(i) != '.' || count < 1 || count > 3) {
+                    return null;
+                }
+                millis = digits(text, i + 1, count);
+                precision = 1L;
+                for (int k = count; k < 3; ++k) {
+                    millis *= 10;
+                    precision *= 10L;
+                }
+            }
+        }
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return null;
+        }
+        long value = ((hour * 60L + minute) * 60L + second) * 1000L + millis;
+        if (hasDate) {
+            value += (DAYS_BEFORE_MONTH[month - 1] + day - 1) * MILLIS_PER_DAY;
+        }
+        if (last) {
+            value += precision - 1L;
+        }
+        return new Point(value, hasDate);
+    }
+
+    /**
+     * @return the millisecond of the year of "MM-dd HH:mm:ss.SSS", or -1 if it's not such a time
+     */
+    public static long parseTimeOfYear(String text) {
+        if (text.length() == 18 && text.charAt(2) == '-' && text.charAt(5) == ' '
+                && text.charAt(8) == ':' && text.charAt(11) == ':' && text.charAt(14) == '.') {
+            final int month = digits(text, 0, 2);
+            final int day = digits(text, 3, 2);
+            final int hour = digits(text, 6, 2);
+            final int minute = digits(text, 9, 2);
+            final int second = digits(text, 12, 2);
+            final int millis = digits(text, 15, 3);
+            if (month >= 1 && month <= 12 && day >= 1 && day <= daysOfMonth(month)
+                    && hour >= 0 && hour < 24 && minute >= 0 && minute < 60
+                    && second >= 0 && second < 60 && millis >= 0) {
+                return (DAYS_BEFORE_MONTH[month - 1] + day - 1) * MILLIS_PER_DAY
+                        + ((hour * 60L + minute) * 60L + second) * 1000L + millis;
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * @param timestamp a timestamp or a millisecond of the year
+     * @return "MM-dd HH:mm:ss.SSS"
+     */
+    public static String format(long timestamp) {
+        final long value = timestamp % MILLIS_PER_YEAR;
+        final int dayOfYear = (int) (value / MILLIS_PER_DAY);
+        int month = 1;
+        while (DAYS_BEFORE_MONTH[month] <= dayOfYear) {
+            ++month;
+        }
+        final int day = dayOfYear - DAYS_BEFORE_MONTH[month - 1] + 1;
+        int millisOfDay = (int) (value % MILLIS_PER_DAY);
+        final int millis = millisOfDay % 1000;
+        millisOfDay /= 1000;
+        final int second = millisOfDay % 60;
+        millisOfDay /= 60;
+        final int minute = millisOfDay % 60;
+        final int hour = millisOfDay / 60;
+        final char[] chars = new char[18];
+        putDigits(chars, 0, month, 2);
+        chars[2] = '-';
+        putDigits(chars, 3, day, 2);
+        chars[5] = ' ';
+        putDigits(chars, 6, hour, 2);
+        chars[8] = ':';
+        putDigits(chars, 9, minute, 2);
+        chars[11] = ':';
+        putDigits(chars, 12, second, 2);
+        chars[14] = '.';
+        putDigits(chars, 15, millis, 3);
+        return new String(chars);
+    }
+
+    private static int daysOfMonth(int month) {
+        return DAYS_BEFORE_MONTH[month] - DAYS_BEFORE_MONTH[month - 1];
+    }
+
+    /**
+     * @return the number of the ASCII digits, or -1 if any char is not a digit
+     */
+    private static int digits(String text, int start, int count) {
+        if (start + count > text.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int k = start; k < start + count; ++k) {
+            final char c = text.charAt(k);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void putDigits(char[] chars, int start, int value, int count) {
+        for (int k = start + count - 1; k >= start; --k) {
+            chars[k] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+/**
+ * The rows of a store sorted by timestamp, for the stores whose rows are not in time order,
+ * like a log of several buffers printed one after another. Rows without a timestamp are left out.
+ * Immutable, it doesn't see the rows added after it was built.
+ */
+public final class LogCatTimeIndex {
+    private final int[] rows;
+    private final long[] times;
+    /** the size of the store it was built for */
+    private final int storeSize;
+
+    /**
+     * Build the index of the rows below the size of the store. The rows are mostly in order,
+     * so it's a merge sort which skips merging the runs already in order.
+     */
+    public LogCatTimeIndex(LogCatStore store) {
+        storeSize = store.size();
+        int count = 0;
+        for (int row = 0; row < storeSize; ++row) {
+            if (store.getTimeValue(row) >= 0L) {
+                ++count;
+            }
+        }
+        int[] sortedRows = new int[count];
+        long[] sortedTimes = new long[count];
+        int k = 0;
+        for (int row = 0; row < storeSize && k < count; ++row) {
+            final long time = store.getTimeValue(row);
+            if (time >= 0L) {
+                sortedRows[k] = row;
+                sortedTimes[k] = time;
+                ++k;
+            }
+        }
+        int[] workRows = new int[count];
+        long[] workTimes = new long[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int from = 0; from < count; from += 2 * width) {
+                final int middle = Math.min(from + width, count);
+                final int to = Math.min(from + 2 * width, count);
+                if (middle >= to || sortedTimes[middle - 1] <= sortedTimes[middle]) {
+                    System.arraycopy(sortedRows, from, workRows, from, to - from);
+                    System.arraycopy(sortedTimes, from, workTimes, from, to - from);
+                    continue;
+                }
+                int i = from;
+                int j = middle;
+                for (int n = from; n < to; ++n) {
+                    if (j >= to || (i < middle && sortedTimes[i] <= sortedTimes[j])) {
+                        workRows[n] = sortedRows[i];
+                        workTimes[n] = sortedTimes[i++];
+                    } else {
+                        workRows[n] = sortedRows[j];
+                        workTimes[n] = sortedTimes[j++];
+                    }
+                }
+            }
+            final int[] swapRows = sortedRows;
+            sortedRows = workRows;
+            workRows = swapRows;
+            final long[] swapTimes = sortedTimes;
+            sortedTimes = workTimes;
+            workTimes = swapTimes;
+        }
+        rows = sortedRows;
+        times = sortedTimes;
+    }
+
+    /**
+     * @return the size of the store when the index was built
+     */
+    public int getStoreSize() {
+        return storeSize;
+    }
+
+    public int size() {
+        return rows.length;
+    }
+
+    /**
+     * @return the row of the store at the position of the index
+     */
+    public int getRow(int position) {
+        return rows[position];
+    }
+
+    public long getTime(int position) {
+        return times[position];
+    }
+
+    /**
+     * @return the first position whose timestamp is not below the given one, or {@link #size()}
+     */
+    public int lowerBound(long timestamp) {
+        int low = 0;
+        int high = times.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (times[middle] < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
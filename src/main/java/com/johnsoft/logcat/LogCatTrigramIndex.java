@@ -0,0 +1,549 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An inverted index of the trigrams of the message texts of a store, so a text filter or
+ * a find checks the lines having all trigrams of the text instead of all lines.
+ * <p/>
+ * A trigram is three US-ASCII chars with the letters folded to lower case, so the index is good
+ * for a text matching the case or not. A line with a char beyond US-ASCII may match a text
+ * by another folding of the case, so it's a candidate of any text. The rows of a trigram
+ * are kept in order, as the differences from the row before in bytes of 7 bits.
+ * <p/>
+ * The rows are indexed in chunks on a fork-join pool, each chunk into a sorted array of
+ * (trigram, row) pairs, and the chunks are added to the index in order, so the rows below
+ * {@link #getIndexedRows()} are indexed while the rows after them are being indexed. Once
+ * the index takes its budget of memory, no more chunks are added, and the rows after the
+ * last chunk added are checked without the index by the callers, as are all rows before
+ * the index is built.
+ */
+public final class LogCatTrigramIndex {
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    /** indexes the chunks of all indexes */
+    private static final ForkJoinPool sIndexPool = new ForkJoinPool(PARALLELISM);
+    private static final int CHUNK_ROWS = 16384;
+    /** the bytes of the rows of a trigram besides the rows */
+    private static final int POSTING_OVERHEAD = 64;
+
+    private final long maxBytes;
+    private final HashMap<Integer, Posting> postings = new HashMap<>();
+    /** the rows of a char beyond US-ASCII, which are candidates of any text */
+    private final Posting otherRows = new Posting();
+    private final Object updateLock = new Object();
+    private volatile int indexedRows;
+    private volatile long bytes;
+    private volatile boolean full;
+
+    /**
+     * @param maxBytes the budget of the memory of the index
+     */
+    public LogCatTrigramIndex(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the rows below it are indexed
+     */
+    public int getIndexedRows() {
+        return indexedRows;
+    }
+
+    /**
+     * @return about the bytes of the heap the index takes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return true if the index has taken its budget of memory, and won't index more rows
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    public synchronized int getTrigramCount() {
+        return postings.size();
+    }
+
+    /**
+     * Index the rows appended to the store since the last update, on the pool, the calling
+     * thread waits for it.
+     * @return false if the index has taken its budget of memory, and not all rows are indexed
+     */
+    public boolean update(LogCatStore store) {
+        synchronized (updateLock) {
+            final int size = store.size();
+            int from = indexedRows;
+            while (from < size && !full) {
+                // a few chunks at a time, so only the pairs of a few chunks are held
+                final List<Chunk> chunks = new ArrayList<>();
+                for (int k = 0; k < PARALLELISM * 2 && from < size; ++k) {
+                    final int to = Math.min(from + CHUNK_ROWS, size);
+                    chunks.add(new Chunk(store, from, to));
+                    from = to;
+                }
+                for (Chunk chunk : chunks) {
+                    sIndexPool.execute(chunk);
+                }
+                for (Chunk chunk : chunks) {
+                    chunk.join();
+                    if (!full) {
+                        add(chunk);
+                    }
+                }
+            }
+            return !full;
+        }
+    }
+
+    private synchronized void add(Chunk chunk) {
+        final long[] pairs = chunk.pairs;
+        long total = bytes;
+        int i = 0;
+        while (i < chunk.count) {
+            final int key = (int) (pairs[i] >>> 32);
+            Posting posting = postings.get(key);
+            if (posting == null) {
+                posting = new Posting();
+                postings.put(key, posting);
+                total += POSTING_OVERHEAD;
+            }
+            final int length = posting.length;
+            for (; i < chunk.count && (int) (pairs[i] >>> 32) == key; ++i) {
+                // a trigram found several times in a line has the pair several times
+                final int row = (int) pairs[i];
+                if (row != posting.last) {
+                    posting.add(row);
+                }
+            }
+            total += posting.length - length;
+        }
+        final int length = otherRows.length;
+        for (int k = 0; k < chunk.otherCount; ++k) {
+            otherRows.add(chunk.otherRows[k]);
+        }
+        total += otherRows.length - length;
+        bytes = total;
+        indexedRows = chunk.to;
+        // the chunk over the budget is kept, the index is whole up to its rows
+        full = total > maxBytes;
+    }
+
+    /**
+     * @param limit the rows at it and after it are not returned, at most {@link #getIndexedRows()}
+     * @return the sorted rows below the limit whose text may contain the literal, or null if
+     * the literal has no trigram of US-ASCII chars, so the index can't tell
+     */
+    public int[] findLiteral(String literal, int limit) {
+        final List<String> literals = new ArrayList<>();
+        literals.add(literal);
+        return find(literals, limit);
+    }
+
+    /**
+     * @param limit the rows at it and after it are not returned, at most {@link #getIndexedRows()}
+     * @return the sorted rows below the limit whose text may be found by the regex, by the
+     * literals every text found by the regex has, see {@link #getRequiredLiterals(String)},
+     * or null if the index can't tell
+     */
+    public int[] findPattern(String regex, int limit) {
+        return find(getRequiredLiterals(regex), limit);
+    }
+
+    private int[] find(List<String> literals, int limit) {
+        final List<Integer> keys = new ArrayList<>();
+        for (String literal : literals) {
+            addTrigrams(literal, keys);
+        }
+        if (keys.isEmpty()) {
+            return null;
+        }
+        int[] rows = null;
+        final int[] others;
+        synchronized (this) {
+            final List<Posting> lists = new ArrayList<>();
+            for (Integer key : keys) {
+                final Posting posting = postings.get(key);
+                if (posting == null) {
+                    lists.clear();
+                    break;
+                }
+                lists.add(posting);
+            }
+            // the shortest lists first, so the rows left are few soon
+            Collections.sort(lists, new Comparator<Posting>() {
+                @Override
+                public int compare(Posting a, Posting b) {
+                    return a.count - b.count;
+                }
+            });
+            for (Posting posting : lists) {
+                rows = rows == null ? posting.decode(limit) : intersect(rows, posting.decode(limit));
+                if (rows.length == 0) {
+                    break;
+                }
+            }
+            others = otherRows.decode(limit);
+        }
+        return rows == null ? others : union(rows, others);
+    }
+
+    private static void addTrigrams(String literal, List<Integer> keys) {
+        int run = 0;
+        for (int i = 0; i < literal.length(); ++i) {
+            if (literal.charAt(i) >= 0x80) {
+                run = 0;
+                continue;
+            }
+            if (++run >= 3) {
+                final Integer key = trigram(literal.charAt(i - 2), literal.charAt(i - 1), literal.charAt(i));
+                if (!keys.contains(key)) {
+                    keys.add(key);
+                }
+            }
+        }
+    }
+
+    private static int trigram(char a, char b, char c) {
+        return fold(a) << 14 | fold(b) << 7 | fold(c);
+    }
+
+    private static int fold(char c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Tell the literals a text found by the regex has, without matching it: the runs of literal
+     * chars at the top of the regex, not in a group or a class, and not made optional by
+     * a quantifier. A regex of alternatives at the top, of quoting or of inline flags
+     * has none, the index can't tell which texts it finds.
+     */
+    static List<String> getRequiredLiterals(String regex) {
+        final List<String> literals = new ArrayList<>();
+        if (regex.contains("\\Q") || regex.contains("(?")) {
+            return literals;
+        }
+        final StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                final char escaped = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(escaped)) {
+                    // a class like \d, a boundary, a back reference, or a char by its code
+                    endRun(run, literals, depth);
+                    i = skipEscape(regex, i);
+                } else {
+                    i += 2;
+                    if (depth == 0) {
+                        run.append(escaped);
+                        i = applyQuantifier(regex, i, run, literals);
+                    }
+                }
+            } else if (c == '[') {
+                endRun(run, literals, depth);
+                i = skipClass(regex, i);
+            } else if (c == '(') {
+                endRun(run, literals, depth);
+                ++depth;
+                ++i;
+            } else if (c == ')') {
+                depth = Math.max(0, depth - 1);
+                ++i;
+            } else if (c == '|') {
+                if (depth == 0) {
+                    literals.clear();
+                    return literals;
+                }
+                ++i;
+            } else if (c == '{') {
+                // the bounds of a quantifier
+                endRun(run, literals, depth);
+                final int close = regex.indexOf('}', i);
+                i = close < 0 ? regex.length() : close + 1;
+            } else if ("^$.?*+}]".indexOf(c) >= 0) {
+                endRun(run, literals, depth);
+                ++i;
+            } else {
+                if (depth == 0) {
+                    run.append(c);
+                    i = applyQuantifier(regex, i + 1, run, literals);
+                } else {
+                    ++i;
+                }
+            }
+        }
+        endRun(run, literals, 0);
+        return literals;
+    }
+
+    /**
+     * Skip an escape of a letter or digit with all it takes after it, like the digits of
+     * {@code \xhh}, of a unicode escape or of {@code \0nn}, the char of {@code \cX}, or the name of
+     * {@code \k<name>} or {@code \p{name}}, so none of it is taken as a literal. Skipping
+     * more than the regex takes is safe, the literal chars skipped are only not required.
+     * @param i the index of the backslash
+     * @return the index after the escape
+     */
+    private static int skipEscape(String regex, int i) {
+        final int length = regex.length();
+        final char escaped = regex.charAt(i + 1);
+        int j = i + 2;
+        switch (escaped) {
+            case 'x':
+                if (j < length && regex.charAt(j) == '{') {
+                    return skipPast(regex, j, '}');
+                }
+                return Math.min(length, j + 2);
+            case 'u':
+                return Math.min(length, j + 4);
+            case '0':
+                while (j < length && j < i + 5 && regex.charAt(j) >= '0' && regex.charAt(j) <= '7') {
+                    ++j;
+                }
+                return j;
+            case 'c':
+                return Math.min(length, j + 1);
+            case 'k':
+                return j < length && regex.charAt(j) == '<' ? skipPast(regex, j, '>') : j;
+            case 'p':
+            case 'P':
+            case 'N':
+                if (j < length && regex.charAt(j) == '{') {
+                    return skipPast(regex, j, '}');
+                }
+                return Math.min(length, j + 1);
+            default:
+                if (escaped >= '1' && escaped <= '9') {
+                    // a back reference takes as many digits as there are groups
+                    while (j < length && regex.charAt(j) >= '0' && regex.charAt(j) <= '9') {
+                        ++j;
+                    }
+                }
+                return j;
+        }
+    }
+
+    private static int skipPast(String regex, int from, char close) {
+        final int end = regex.indexOf(close, from);
+        return end < 0 ? regex.length() : end + 1;
+    }
+
+    /**
+     * A char of a run followed by a quantifier may not be there, or may be repeated, so the run ends.
+     * @return the index after the char
+     */
+    private static int applyQuantifier(String regex, int i, StringBuilder run, List<String> literals) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        final char q = regex.charAt(i);
+        if (q == '?' || q == '*' || q == '{') {
+            run.setLength(run.length() - 1);
+            endRun(run, literals, 0);
+        } else if (q == '+') {
+            endRun(run, literals, 0);
+        }
+        return i;
+    }
+
+    private static void endRun(StringBuilder run, List<String> literals, int depth) {
+        if (depth == 0 && run.length() > 0) {
+            literals.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    /**
+     * @return the index after the class starting at the index
+     */
+    private static int skipClass(String regex, int i) {
+        ++i;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            ++i;
+        }
+        // a ']' first is a char of the class
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            ++i;
+        }
+        int depth = 1;
+        while (i < regex.length() && depth > 0) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                ++i;
+            } else if (c == '[') {
+                ++depth;
+            } else if (c == ']') {
+                --depth;
+            }
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * @return the sorted rows of both sorted arrays
+     */
+    public static int[] intersect(int[] a, int[] b) {
+        final int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                ++i;
+            } else if (a[i] > b[j]) {
+                ++j;
+            } else {
+                result[count++] = a[i];
+                ++i;
+                ++j;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return the sorted rows of either sorted array
+     */
+    public static int[] union(int[] a, int[] b) {
+        final int[] result = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            final int row;
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                row = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                row = b[j++];
+            } else {
+                row = a[i++];
+                ++j;
+            }
+            result[count++] = row;
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * The sorted rows of a trigram, as the differences from the row before in bytes of 7 bits,
+     * the high bit set on all bytes of a difference but the last.
+     */
+    private static final class Posting {
+        byte[] data = new byte[8];
+        int length;
+        int count;
+        int last = -1;
+
+        void add(int row) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            int delta = row - last;
+            while (delta >= 0x80) {
+                data[length++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            last = row;
+            ++count;
+        }
+
+        int[] decode(int limit) {
+            final int[] rows = new int[count];
+            int n = 0;
+            int row = -1;
+            int i = 0;
+            while (i < length) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[i++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                row += delta;
+                if (row >= limit) {
+                    break;
+                }
+                rows[n++] = row;
+            }
+            return n == rows.length ? rows : Arrays.copyOf(rows, n);
+        }
+    }
+
+    /**
+     * The (trigram, row) pairs of a range of rows, sorted, and the rows of a char beyond US-ASCII.
+     */
+    private static final class Chunk extends RecursiveAction {
+        private final LogCatStore store;
+        private final int from;
+        final int to;
+        long[] pairs = new long[1024];
+        int count;
+        int[] otherRows = new int[16];
+        int otherCount;
+
+        Chunk(LogCatStore store, int from, int to) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            for (int row = from; row < to; ++row) {
+                final String text = store.getMessage(row);
+                final int length = text.length();
+                if (count + length > pairs.length) {
+                    pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, count + length));
+                }
+                final int start = count;
+                for (int i = 0; i < length; ++i) {
+                    if (text.charAt(i) >= 0x80) {
+                        // a candidate of any text, its trigrams are not needed
+                        count = start;
+                        if (otherCount == otherRows.length) {
+                            otherRows = Arrays.copyOf(otherRows, otherCount * 2);
+                        }
+                        otherRows[otherCount++] = row;
+                        break;
+                    }
+                    if (i >= 2) {
+                        final int key = trigram(text.charAt(i - 2), text.charAt(i - 1), text.charAt(i));
+                        pairs[count++] = (long) key << 32 | row;
+                    }
+                }
+            }
+            Arrays.sort(pairs, 0, count);
+        }
+    }
+}
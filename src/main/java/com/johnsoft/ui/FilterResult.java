@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.ui;
+
+import com.johnsoft.logcat.LogCatFilter;
+import com.johnsoft.logcat.LogicalPredicate;
+
+import java.util.List;
+
+/**
+ * The rows of the view for a query as the filter thread has checked them, and where the check
+ * of the rows appended after them goes on, see {@link LogTableModel}. A result is not changed
+ * once it's made, so it's kept by the cache of the model and by the chain of the queries
+ * narrowed from one another at the same time.
+ */
+final class FilterResult {
+    /** the filters of the query, null for all rows */
+    final List<LogCatFilter> filters;
+    final LogicalPredicate predicate;
+    /** whether the rows are of the collapsed view, the first row of each message */
+    final boolean collapse;
+    /** the sorted model rows of the view, not changed */
+    final RowList rows;
+    /** the model rows below it have been checked */
+    final int size;
+    /** the first row of the last message checked, which may go on in the rows appended next, and whether it matched */
+    final int openRecord;
+    final boolean openRecordMatched;
+
+    FilterResult(List<LogCatFilter> filters, LogicalPredicate predicate, boolean collapse, RowList rows,
+                 int size, int openRecord, boolean openRecordMatched) {
+        this.filters = filters;
+        this.predicate = predicate;
+        this.collapse = collapse;
+        this.rows = rows;
+        this.size = size;
+        this.openRecord = openRecord;
+        this.openRecordMatched = openRecordMatched;
+    }
+
+    /**
+     * @return about the bytes of the heap the result takes
+     */
+    long getBytes() {
+        return 64L + rows.getBytes();
+    }
+
+    boolean isNarrowerThan(List<LogCatFilter> list, LogicalPredicate predicate) {
+        return isNarrower(filters, this.predicate, list, predicate);
+    }
+
+    boolean isWiderThan(List<LogCatFilter> list, LogicalPredicate predicate) {
+        return isNarrower(list, predicate, filters, this.predicate);
+    }
+
+    /**
+     * @return true if every message matching the filters also matches the old filters, as far
+     * as can be told from the filters, see {@link LogCatFilter#implies(LogCatFilter)}, null
+     * filters match all messages
+     */
+    static boolean isNarrower(List<LogCatFilter> list, LogicalPredicate predicate,
+                              List<LogCatFilter> oldList, LogicalPredicate oldPredicate) {
+        if (oldList == null) {
+            return true;
+        }
+        if (list == null) {
+            return false;
+        }
+        if (predicate == LogicalPredicate.AND && oldPredicate == LogicalPredicate.AND) {
+            // each old filter by one of the filters, like when a word is added
+            for (LogCatFilter old : oldList) {
+                if (!isImpliedByAny(list, old)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (predicate == LogicalPredicate.AND) {
+            // any old filter by any of the filters
+            for (LogCatFilter old : oldList) {
+                if (isImpliedByAny(list, old)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (oldPredicate == LogicalPredicate.AND) {
+            // each old filter by each of the filters
+            for (LogCatFilter f : list) {
+                for (LogCatFilter old : oldList) {
+                    if (!f.implies(old)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } else {
+            // any old filter by each of the filters, like when a word is removed
+            for (LogCatFilter f : list) {
+                if (!impliesAny(f, oldList)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static boolean isImpliedByAny(List<LogCatFilter> list, LogCatFilter old) {
+        for (LogCatFilter f : list) {
+            if (f.implies(old)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean impliesAny(LogCatFilter f, List<LogCatFilter> oldList) {
+        for (LogCatFilter old : oldList) {
+            if (f.implies(old)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
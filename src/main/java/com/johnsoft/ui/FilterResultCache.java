@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.ui;
+
+import com.johnsoft.logcat.LogCatFilter;
+import com.johnsoft.logcat.LogicalPredicate;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The results of the recent queries of a model, so going back to a query, like flipping
+ * between a pid, a tag and a level, takes its rows instead of checking all rows again.
+ * <p/>
+ * A result is keyed by the settings of its filters, see {@link LogCatFilter#equals(Object)},
+ * in any order, the predicate, which doesn't matter for one filter, and whether the view
+ * is collapsed. The least recently used results are dropped beyond a budget of memory.
+ * A result of a model which has grown since is still good for the rows below its size.
+ */
+final class FilterResultCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Key, FilterResult> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxBytes the budget of the memory of the results
+     */
+    FilterResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    private static final class Key {
+        private final Set<LogCatFilter> filters;
+        private final LogicalPredicate predicate;
+        private final boolean collapse;
+
+        Key(List<LogCatFilter> filters, LogicalPredicate predicate, boolean collapse) {
+            this.filters = filters == null ? null : new HashSet<>(filters);
+            this.predicate = filters == null || this.filters.size() <= 1 ? null : predicate;
+            this.collapse = collapse;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return (filters == null ? other.filters == null : filters.equals(other.filters))
+                    && predicate == other.predicate && collapse == other.collapse;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = filters == null ? 0 : filters.hashCode();
+            result = 31 * result + (predicate == null ? 0 : predicate.hashCode());
+            return 31 * result + (collapse ? 1 : 0);
+        }
+    }
+
+    /**
+     * @return the result of the query, or null, which is counted as a hit or a miss
+     */
+    synchronized FilterResult get(List<LogCatFilter> filters, LogicalPredicate predicate, boolean collapse) {
+        final FilterResult result = results.get(new Key(filters, predicate, collapse));
+        if (result != null) {
+            ++hits;
+        } else {
+            ++misses;
+        }
+        return result;
+    }
+
+    /**
+     * Keep the result in place of the one of the same query, a result over the budget is not kept.
+     */
+    synchronized void put(FilterResult result) {
+        final Key key = new Key(result.filters, result.predicate, result.collapse);
+        final FilterResult old = results.remove(key);
+        if (old != null) {
+            bytes -= old.getBytes();
+        }
+        if (result.getBytes() > maxBytes) {
+            return;
+        }
+        results.put(key, result);
+        bytes += result.getBytes();
+        final Iterator<Map.Entry<Key, FilterResult>> iterator = results.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().getBytes();
+            iterator.remove();
+        }
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized int getResultCount() {
+        return results.size();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+}
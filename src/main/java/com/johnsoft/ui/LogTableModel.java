@@ -16,112 +16,928 @@
  */
 package com.johnsoft.ui;
 
+import com.johnsoft.logcat.LogCatBitmap;
+import com.johnsoft.logcat.LogCatFieldIndex;
 import com.johnsoft.logcat.LogCatFilter;
+import com.johnsoft.logcat.LogCatIndexFile;
 import com.johnsoft.logcat.LogCatMessage;
+import com.johnsoft.logcat.LogCatMessageParser;
+import com.johnsoft.logcat.LogCatParseStats;
+import com.johnsoft.logcat.LogCatStore;
+import com.johnsoft.logcat.LogCatTime;
+import com.johnsoft.logcat.LogCatTimeIndex;
+import com.johnsoft.logcat.LogCatTrigramIndex;
 import com.johnsoft.logcat.LogicalPredicate;
 
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.table.AbstractTableModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
+ * The rows of the view are the rows of the store matching the filters, a row per line, or
+ * a row per message after {@link #setCollapsed(boolean)}. A message of several lines is checked
+ * by the filters once, and all its lines are shown if it matches.
+ * <p/>
+ * The rows are checked on the filter thread, a long range of rows is split into chunks at
+ * the starts of messages, which are checked on a fork-join pool, and the rows of the chunks
+ * are joined in order. A query narrowed from the query before, see {@link LogCatFilter#implies(LogCatFilter)},
+ * only checks the messages of the view, and the rows of the queries it has been narrowed from
+ * are kept for a while, so they are taken again when the query is widened back. The results of
+ * the recent queries are kept in a cache, see {@link FilterResultCache}. When all rows are
+ * checked again, only the messages selected by the levels, pids, tids and tags of the filters
+ * are checked, see {@link LogCatFieldIndex}, or none if the filters have no other settings.
+ * The rows of the view are kept as ints, and the rows of a view without filters as their number
+ * alone, see {@link RowList}.
+ * <p/>
+ * A change of the filters cancels the change before it, whose chunks stop checking rows,
+ * and the rows of the view are shown as the chunks are done, see {@link #isFiltering()}.
  * @author John Kenrinus Lee
  * @version 2016-04-25
  */
 public final class LogTableModel extends AbstractTableModel implements LogTableView.CommonModel {
     public static final String[] COLUMN_HEADERS = new String[] {
-            "Level", "Time", "PID", "TID", "Application", "Thread", "Tag", "Text"
+            "Source", "Level", "Time", "PID", "TID", "Application", "Thread", "Tag", "Text"
     };
     private static final int COLUMN_COUNT = COLUMN_HEADERS.length;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    /** checks the chunks of the rows for the filters of all models */
+    private static final ForkJoinPool sFilterPool = new ForkJoinPool(PARALLELISM);
+    /** fewer rows are checked on the filter thread, more are split into chunks of at least this many rows */
+    private static final int MIN_CHUNK_ROWS = 16384;
+    /** at most this many results of wider queries are kept, and at most this many rows of them */
+    private static final int MAX_WIDER_RESULTS = 8;
+    private static final int MAX_WIDER_RESULT_ROWS = 1 << 22;
+    /** the results of the recent queries are kept in this share of the heap */
+    private static final long FILTER_CACHE_BYTES = Runtime.getRuntime().maxMemory() / 16L;
+    /** the trigram index of the texts takes at most this share of the heap */
+    private static final long TEXT_INDEX_BYTES = Runtime.getRuntime().maxMemory() / 8L;
+    /** a change of the filters waits about as long as the changes before took, for the typing to go on, at most this long */
+    private static final long MAX_FILTER_DELAY_MILLIS = 800L;
+    /** the rows of the view are shown this often while the rows are checked */
+    private static final long PROGRESS_MILLIS = 200L;
+    /** a chunk sees a change of the filters cancelled after checking at most this many messages */
+    private static final int CANCEL_CHECK_MESSAGES = 1024;
 
     private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
-    private ScheduledFuture<?> scheduledFuture;
 
-    /** should not update it except from setDataSource(List) */
-    private List<LogCatMessage> modelList = new ArrayList<>();
-    /** should not update it except from setDataSource(List) */
-    private int modelSize;
+    /** should not update it except from appendData(List) */
+    private final LogCatStore modelList = new LogCatStore();
 
-    private List<Integer> viewList = new ArrayList<>();
+    /** filters of the view, null for showing all rows, only used on the filter thread */
+    private List<LogCatFilter> filterList;
+    private LogicalPredicate filterPredicate;
+    /** model rows below it have been checked by the filters of the view, only used on the filter thread */
+    private int filteredSize;
+    /**
+     * the first row of the last message checked by the filters, which may go on in the rows
+     * appended next, and whether it matched, only used on the filter thread
+     */
+    private int openRecord = -1;
+    private boolean openRecordMatched;
+    /**
+     * the rows of the view as checked on the filter thread, ahead of the view, and whether
+     * they are of the collapsed view, only used on the filter thread
+     */
+    private RowList filteredRows = new RowList();
+    private boolean filteredCollapsed;
+    /**
+     * the results of the queries the current query has been narrowed from, the narrowest last,
+     * only used on the filter thread
+     */
+    private final ArrayDeque<FilterResult> widerResults = new ArrayDeque<>();
+    /**
+     * the change of the filters being applied, whose rows are shown as they are checked, null
+     * while the appended rows are checked, only used on the filter thread
+     */
+    private FilterRequest applying;
+    /**
+     * whether the rows of the view were left unfinished by a change of the filters cancelled
+     * for the next change, which checks all rows again, only used on the filter thread
+     */
+    private boolean filterUnfinished;
+    /**
+     * about how long a change of the filters takes to apply, in milliseconds, 0 until one is
+     * applied, so the changes of a small log are applied without waiting
+     */
+    private volatile long filterMillis;
+    /** the last change of the filters, only used on the event dispatch thread */
+    private FilterRequest filterRequest;
+    /** the changes of the filters not applied yet, only used on the event dispatch thread */
+    private int pendingFilters;
+    /** the result the rows of the view have been taken from, if no rows have been checked since */
+    private FilterResult filteredResult;
+    private final FilterResultCache filterCache = new FilterResultCache(FILTER_CACHE_BYTES);
+    /**
+     * the messages by their levels, pids, tids and tags, updated with the rows appended since
+     * when all rows are checked again, only used on the filter thread
+     */
+    private final LogCatFieldIndex fieldIndex = new LogCatFieldIndex();
+    /** the index of the texts, null until {@link #buildTextIndex()} */
+    private volatile LogCatTrigramIndex textIndex;
+    /** whether a message of several lines is one row of the view */
+    private volatile boolean collapsed;
+    /** the statistics of the load of the rows */
+    private volatile LogCatParseStats parseStats = new LogCatParseStats();
 
-    /** should call this method only once */
-    public final void setDataSource(List<LogCatMessage> list) {
-        this.modelList = Collections.unmodifiableList(list);
-        this.modelSize = modelList.size();
-        final ArrayList<Integer> indexList = new ArrayList<>(modelSize);
-        for (int i = 0; i < modelSize; ++i) {
-            indexList.add(i);
-        }
-        synchronized (LogTableModel.this) {
-            this.viewList = indexList;
+    /** should not update it except from event dispatch thread */
+    private RowList viewList = new RowList();
+
+    /** rows of the store sorted by time, when they are not in time order, only used on the event dispatch thread */
+    private LogCatTimeIndex timeIndex;
+
+    /**
+     * Append messages to the model, should call this method from one loading thread, which
+     * may call it many times. The new rows are checked by the current filters on the filter
+     * thread and then inserted into the view.
+     */
+    public final void appendData(List<LogCatMessage> list) {
+        if (list.isEmpty()) {
+            return;
         }
-        SwingUtilities.invokeLater(new Runnable() {
+        modelList.addAll(list);
+        filterAppendedRows();
+    }
+
+    /**
+     * Check the rows appended to the store by the current filters on the filter thread,
+     * and then insert them into the view.
+     */
+    private void filterAppendedRows() {
+        scheduledExecutorService.execute(new Runnable() {
             @Override
             public void run() {
-                fireTableDataChanged();
+                final int from = filteredSize;
+                final int to = modelList.size();
+                if (from >= to || filterUnfinished) {
+                    // the next change of the filters checks all rows
+                    return;
+                }
+                final RowList indexList = new RowList();
+                filterRows(from, to, null, indexList);
+                filteredSize = to;
+                filteredRows.addAll(indexList);
+                if (indexList.isEmpty()) {
+                    return;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        final int firstRow = viewList.size();
+                        synchronized (LogTableModel.this) {
+                            viewList.addAll(indexList);
+                        }
+                        fireTableRowsInserted(firstRow, firstRow + indexList.size() - 1);
+                    }
+                });
             }
         });
     }
 
+    /**
+     * Read the message texts of the rows loaded from the file when they're needed, instead
+     * of keeping them, should call this method from the loading thread before appending.
+     */
+    public final void openTextSource(File file) throws IOException {
+        modelList.openTextSource(file);
+    }
+
+    /**
+     * Stop reading the message texts from the file, which is truncated, see
+     * {@link LogCatStore#truncateTextSource()}.
+     */
+    public final void truncateTextSource() {
+        modelList.truncateTextSource();
+    }
+
+    /**
+     * Keep the rows off the heap, should call this method from the loading thread before appending.
+     * @param mapped whether to map the memory from a scratch file instead of allocating direct buffers
+     */
+    public final void useOffHeapStorage(boolean mapped) throws IOException {
+        modelList.useOffHeapStorage(mapped);
+    }
+
+    public final long getOffHeapBytes() {
+        return modelList.getOffHeapBytes();
+    }
+
+    /**
+     * @param stats the statistics of the parser loading the rows, see {@link LogCatMessageParser#getStats()}
+     */
+    public final void setParseStats(LogCatParseStats stats) {
+        parseStats = stats;
+    }
+
+    @Override
+    public final LogCatParseStats getParseStats() {
+        return parseStats;
+    }
+
+    /**
+     * Map the rows from the sidecar of the log file, see {@link LogCatIndexFile}, instead of
+     * parsing it, should call this method from the loading thread before appending. The parser
+     * is given the statistics of the parse kept in the sidecar.
+     * @return the number of rows loaded, or -1 if there is no sidecar of the file as it is now
+     */
+    public final int loadIndex(File file, LogCatMessageParser parser) {
+        if (!LogCatIndexFile.load(file, parser.getClass().getName(), modelList, parser.getStats())) {
+            return -1;
+        }
+        filterAppendedRows();
+        return modelList.size();
+    }
+
+    /**
+     * Write the sidecar of the log file with the rows loaded from it, should call this method
+     * from the loading thread after the whole file is parsed.
+     * @param parsedLength the bytes of the file parsed
+     */
+    public final boolean writeIndex(File file, LogCatMessageParser parser, long parsedLength) throws IOException {
+        return LogCatIndexFile.write(file, parser.getClass().getName(), modelList, parser.getStats(),
+                parsedLength);
+    }
+
+    /**
+     * Index the texts of the rows loaded so far on a thread of its own, so the text filters and
+     * the finds check only the lines which may match, see {@link LogCatTrigramIndex}. The rows
+     * appended after it, and all rows until the index is built, are checked without the index.
+     * Should call this method from the loading thread after a load.
+     */
+    public final void buildTextIndex() {
+        LogCatTrigramIndex index = textIndex;
+        if (index == null) {
+            index = new LogCatTrigramIndex(TEXT_INDEX_BYTES);
+            textIndex = index;
+        }
+        final LogCatTrigramIndex building = index;
+        final Thread thread = new Thread("Text-Index-Thread") {
+            @Override
+            public void run() {
+                building.update(modelList);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the first rows of the messages below the limit which may match the current
+     * filters by their texts, by the text index, or null if the index can't tell
+     * @param limit at most the rows indexed, see {@link LogCatTrigramIndex#getIndexedRows()}
+     */
+    private int[] findTextCandidates(LogCatTrigramIndex index, int limit) {
+        final List<LogCatFilter> list = filterList;
+        if (list == null) {
+            return null;
+        }
+        int[] rows = null;
+        for (LogCatFilter f : list) {
+            // a filter matches a message by any line of it, so the lines are taken to their
+            // messages before the candidates of several filters meet
+            final int[] found = f.isTextChecked() ? index.findPattern(f.getText(), limit) : null;
+            if (filterPredicate == LogicalPredicate.AND) {
+                // any filter with a text narrows the candidates
+                if (found != null) {
+                    final int[] starts = recordStartsOf(found);
+                    rows = rows == null ? starts : LogCatTrigramIndex.intersect(rows, starts);
+                }
+            } else if (found == null) {
+                // a filter of an OR query without a text may match any message
+                return null;
+            } else {
+                final int[] starts = recordStartsOf(found);
+                rows = rows == null ? starts : LogCatTrigramIndex.union(rows, starts);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return the distinct first rows of the messages of the sorted rows
+     */
+    private int[] recordStartsOf(int[] rows) {
+        final int[] starts = new int[rows.length];
+        int count = 0;
+        for (int row : rows) {
+            final int start = modelList.getRecordStart(row);
+            if (count == 0 || starts[count - 1] != start) {
+                starts[count++] = start;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Add the model rows in [from, to) to show, of the messages which match the filters
+     * of the view, the first row of each message if the view is collapsed.
+     * @param known the sorted first rows of messages known to match, which are not checked
+     *              again, or null
+     */
+    private void filterRows(int from, int to, int[] known, RowList indexList) {
+        final List<LogCatFilter> list = filterList;
+        final LogicalPredicate predicate = filterPredicate;
+        final boolean collapse = collapsed;
+        int row = from;
+        if (row < to && openRecord >= 0 && modelList.isContinuation(row)) {
+            // more lines of the last message checked, a line may match now, no line unmatches it
+            final int end = modelList.getRecordEnd(row, to);
+            final boolean matched = openRecordMatched || list == null
+                    || matches(modelList, openRecord, end, list, predicate);
+            if (matched && !collapse) {
+                indexList.addRange(openRecordMatched ? row : openRecord, end);
+            } else if (matched && !openRecordMatched) {
+                indexList.add(openRecord);
+            }
+            openRecordMatched = matched;
+            row = end;
+        }
+        if (row >= to) {
+            return;
+        }
+        if (list == null && !collapse) {
+            // all rows, without checking them
+            indexList.addRange(row, to);
+            openRecord = modelList.getRecordStart(to - 1);
+            openRecordMatched = true;
+            return;
+        }
+        final List<FilterChunk> chunks = new ArrayList<>();
+        final int chunkRows = Math.max(MIN_CHUNK_ROWS, (to - row) / (PARALLELISM * 4));
+        while (row < to) {
+            int end = (int) Math.min((long) row + chunkRows, to);
+            // a message is checked as a whole, so a chunk ends at the start of a message
+            while (end < to && modelList.isContinuation(end)) {
+                ++end;
+            }
+            chunks.add(new FilterChunk(modelList, list, predicate, collapse, applying, null, known, row, end, end));
+            row = end;
+        }
+        runChunks(chunks, indexList);
+        final FilterChunk last = chunks.get(chunks.size() - 1);
+        openRecord = last.lastRecord;
+        openRecordMatched = last.lastMatched;
+    }
+
+    /**
+     * Add the model rows to show of the messages starting at the given rows, which
+     * match the filters of the view.
+     * @param limit the messages end before this row
+     * @param matched whether the messages are known to match, so they are not checked
+     */
+    private void filterRecords(int[] starts, int limit, boolean matched, RowList indexList) {
+        if (starts.length == 0) {
+            return;
+        }
+        final List<FilterChunk> chunks = new ArrayList<>();
+        final int chunkRecords = Math.max(MIN_CHUNK_ROWS, starts.length / (PARALLELISM * 4));
+        for (int i = 0; i < starts.length; i += chunkRecords) {
+            chunks.add(new FilterChunk(modelList, matched ? null : filterList, filterPredicate, collapsed, applying,
+                    starts, null, i, Math.min(i + chunkRecords, starts.length), limit));
+        }
+        runChunks(chunks, indexList);
+    }
+
+    /**
+     * Check the chunks, on the pool if there are several, and append their rows in order.
+     * The rows of a change of the filters are shown as the chunks are done, a while after
+     * they were last shown, so the first rows are seen before all rows are checked.
+     * @throws CancellationException if the change of the filters is cancelled
+     */
+    private void runChunks(List<FilterChunk> chunks, RowList indexList) {
+        final FilterRequest request = applying;
+        final boolean parallel = chunks.size() > 1;
+        if (parallel) {
+            for (FilterChunk chunk : chunks) {
+                sFilterPool.execute(chunk);
+            }
+        } else {
+            chunks.get(0).scan();
+        }
+        for (FilterChunk chunk : chunks) {
+            if (parallel) {
+                chunk.join();
+            }
+            if (request == null) {
+                indexList.addAll(chunk.rows, chunk.count);
+                continue;
+            }
+            // the chunks after it stop on their own
+            if (request.cancelled) {
+                throw new CancellationException();
+            }
+            indexList.addAll(chunk.rows, chunk.count);
+            final long now = System.currentTimeMillis();
+            if (now - request.shownMillis >= PROGRESS_MILLIS && indexList.size() > request.shownRows) {
+                request.shownMillis = now;
+                request.shownRows = indexList.size();
+                showRows(indexList.copy());
+            }
+        }
+    }
+
+    /**
+     * Check the messages starting in a range of rows by the filters, into an array of the
+     * rows to show. The range starts and ends at the start of a message. Or check the messages
+     * starting at the rows of a range of an array, like the messages of the view when the
+     * query is narrowed. A chunk stops early when the change of the filters it's checked for
+     * is cancelled.
+     */
+    private static final class FilterChunk extends RecursiveAction {
+        private final LogCatStore store;
+        private final List<LogCatFilter> list;
+        private final LogicalPredicate predicate;
+        private final boolean collapse;
+        /** the change of the filters checked for, or null */
+        private final FilterRequest request;
+        /** the first rows of the messages to check, or null to check all messages of the range */
+        private final int[] starts;
+        /** the sorted first rows of the messages known to match, or null */
+        private final int[] known;
+        private final int from;
+        private final int to;
+        /** the messages end before this row */
+        private final int limit;
+        int[] rows = new int[16];
+        int count;
+        /** the first row of the last message of the range, and whether it matched */
+        int lastRecord = -1;
+        boolean lastMatched;
+
+        FilterChunk(LogCatStore store, List<LogCatFilter> list, LogicalPredicate predicate, boolean collapse,
+                    FilterRequest request, int[] starts, int[] known, int from, int to, int limit) {
+            this.store = store;
+            this.list = list;
+            this.predicate = predicate;
+            this.collapse = collapse;
+            this.request = request;
+            this.starts = starts;
+            this.known = known;
+            this.from = from;
+            this.to = to;
+            this.limit = limit;
+        }
+
+        @Override
+        protected void compute() {
+            scan();
+        }
+
+        void scan() {
+            if (starts != null) {
+                for (int i = from; i < to; ++i) {
+                    if ((i - from) % CANCEL_CHECK_MESSAGES == 0 && isRequestCancelled()) {
+                        return;
+                    }
+                    final int row = starts[i];
+                    check(row, store.getRecordEnd(row, limit), false);
+                }
+                return;
+            }
+            int k = 0;
+            if (known != null) {
+                k = Arrays.binarySearch(known, from);
+                k = k < 0 ? -k - 1 : k;
+            }
+            int row = from;
+            int messages = 0;
+            while (row < limit) {
+                if (messages++ % CANCEL_CHECK_MESSAGES == 0 && isRequestCancelled()) {
+                    return;
+                }
+                final int end = store.getRecordEnd(row, limit);
+                if (known != null) {
+                    while (k < known.length && known[k] < row) {
+                        ++k;
+                    }
+                }
+                check(row, end, known != null && k < known.length && known[k] == row);
+                row = end;
+            }
+        }
+
+        private boolean isRequestCancelled() {
+            return request != null && request.cancelled;
+        }
+
+        private void check(int row, int end, boolean matched) {
+            matched = matched || list == null || matches(store, row, end, list, predicate);
+            if (matched && !collapse) {
+                add(row, end);
+            } else if (matched) {
+                add(row, row + 1);
+            }
+            lastRecord = row;
+            lastMatched = matched;
+        }
+
+        private void add(int first, int end) {
+            final int n = end - first;
+            if (count + n > rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(rows.length * 2, count + n));
+            }
+            for (int i = first; i < end; ++i) {
+                rows[count++] = i;
+            }
+        }
+    }
+
+    private static boolean matches(LogCatStore store, int row, int end,
+                                   List<LogCatFilter> list, LogicalPredicate predicate) {
+        if (predicate == LogicalPredicate.AND) {
+            for (LogCatFilter f : list) {
+                if (!f.matches(store, row, end)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (predicate == LogicalPredicate.OR) {
+            for (LogCatFilter f : list) {
+                if (f.matches(store, row, end)) {
+                    return true;
+                }
+            }
+            return false;
+        } else {
+            throw new IllegalArgumentException("Unknown LogicalPredicate");
+        }
+    }
+
+    /**
+     * Change the filters of the view, should call this method from event dispatch thread.
+     * The change waits about as long as the changes before took, so a change typed on
+     * replaces it before it starts, and the change before it is cancelled, its rows are
+     * no longer checked.
+     */
     public final void setRowFilter(final List<LogCatFilter> list, final LogicalPredicate predicate) {
         if (!SwingUtilities.isEventDispatchThread()) {
             throw new RuntimeException("call this method from event dispatch thread");
         }
+        if (filterRequest != null) {
+            // neither interrupted, an interrupt closes the channel of the lazy texts for good,
+            // nor taken off the schedule, so each change is done on the filter thread once
+            filterRequest.cancelled = true;
+        }
+        final FilterRequest request = startRequest();
+        filterRequest = request;
+        scheduledExecutorService.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runFilter(request, list == null ? null : LogCatFilter.sortByCost(list), predicate);
+            }
+        }, Math.min(MAX_FILTER_DELAY_MILLIS, filterMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A change of the filters, cancelled by the next change.
+     */
+    private static final class FilterRequest {
+        volatile boolean cancelled;
+        /** when the rows were last shown, and how many, only used on the filter thread */
+        long shownMillis;
+        int shownRows;
+    }
+
+    private FilterRequest startRequest() {
+        if (pendingFilters++ == 0) {
+            fireFilteringChanged();
+        }
+        return new FilterRequest();
+    }
+
+    private void finishRequest() {
+        if (--pendingFilters == 0) {
+            fireFilteringChanged();
+        }
+    }
+
+    private void fireFilteringChanged() {
+        final ChangeEvent event = new ChangeEvent(this);
+        for (ChangeListener listener : listenerList.getListeners(ChangeListener.class)) {
+            listener.stateChanged(event);
+        }
+    }
+
+    /**
+     * @return true while a change of the filters is waiting or being applied, should call
+     * this method from event dispatch thread
+     */
+    public final boolean isFiltering() {
+        return pendingFilters > 0;
+    }
+
+    /**
+     * @param listener told when {@link #isFiltering()} changes, on event dispatch thread
+     */
+    public final void addFilteringListener(ChangeListener listener) {
+        listenerList.add(ChangeListener.class, listener);
+    }
+
+    /**
+     * Apply a change of the filters on the filter thread, unless it's cancelled, and keep
+     * how long it took for the delay of the next change.
+     */
+    private void runFilter(FilterRequest request, List<LogCatFilter> list, LogicalPredicate predicate) {
+        final long start = System.currentTimeMillis();
         try {
-            if (scheduledFuture != null) {
-                scheduledFuture.cancel(true);
+            if (!request.cancelled) {
+                applying = request;
+                request.shownMillis = start;
+                applyFilter(list, predicate);
+                final long millis = System.currentTimeMillis() - start;
+                // a slow change raises the delay at once, the fast changes after it lower it slowly
+                filterMillis = millis > filterMillis ? millis : (filterMillis * 3L + millis) / 4L;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (CancellationException e) {
+            // the rows are left unfinished for the next change
+        } finally {
+            applying = null;
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    finishRequest();
+                }
+            });
         }
-        scheduledFuture = scheduledExecutorService.schedule(new Runnable() {
+    }
+
+    /**
+     * Show a message of several lines as one row, or as a row per line, should call this
+     * method from event dispatch thread.
+     */
+    public final void setCollapsed(boolean collapsed) {
+        if (this.collapsed == collapsed) {
+            return;
+        }
+        this.collapsed = collapsed;
+        final FilterRequest request = startRequest();
+        scheduledExecutorService.execute(new Runnable() {
             @Override
             public void run() {
-                final ArrayList<Integer> indexList = new ArrayList<>();
-                for (int i = 0; i < modelSize; ++i) {
-                    LogCatMessage message = modelList.get(i);
-                    boolean match;
-                    if (predicate == LogicalPredicate.AND) {
-                        match = true;
-                        for (LogCatFilter f : list) {
-                            if (!f.matches(message)) {
-                                match = false;
-                                break;
-                            }
-                        }
-                    } else if (predicate == LogicalPredicate.OR) {
-                        match = false;
-                        for (LogCatFilter f : list) {
-                            if (f.matches(message)) {
-                                match = true;
-                                break;
-                            }
-                        }
-                    } else {
-                        throw new IllegalArgumentException("Unknown LogicalPredicate");
-                    }
-                    if (match) {
-                        indexList.add(i);
-                    }
+                runFilter(request, filterList, filterPredicate);
+            }
+        });
+    }
+
+    public final boolean isCollapsed() {
+        return collapsed;
+    }
+
+    /**
+     * Change the filters of the view, on the filter thread. The rows of a recent query are
+     * taken from the cache. When the query is narrowed, like when a word is typed on, a word
+     * is added to an AND query or the level is raised, only the messages of the view are
+     * checked. When the query is widened back to a query it has been narrowed from, like when
+     * the typing is deleted, the rows of that query are taken again. When it's widened
+     * otherwise, the messages of the view are taken without checking them, and the rest
+     * are checked.
+     */
+    private void applyFilter(List<LogCatFilter> list, LogicalPredicate predicate) {
+        final boolean collapse = collapsed;
+        if (!filterUnfinished && filteredCollapsed == collapse
+                && FilterResult.isNarrower(list, predicate, filterList, filterPredicate)
+                && FilterResult.isNarrower(filterList, filterPredicate, list, predicate)) {
+            // the same messages, like after typing a space
+            filterList = list;
+            filterPredicate = predicate;
+            return;
+        }
+        // the rows left unfinished are of no query, the results of the queries before are still good
+        final FilterResult current = filterUnfinished ? null : leaveResult();
+        FilterResult wider = null;
+        FilterResult subset = null;
+        if (filteredCollapsed != collapse) {
+            widerResults.clear();
+        } else if (current != null && current.isWiderThan(list, predicate)) {
+            pushWiderResult(current);
+            wider = current;
+        } else {
+            subset = current != null && current.isNarrowerThan(list, predicate) ? current : null;
+            while (!widerResults.isEmpty()) {
+                final FilterResult r = widerResults.peekLast();
+                if (r.isWiderThan(list, predicate)) {
+                    wider = r;
+                    break;
                 }
+                // the results are wider and wider, the widest of them narrower than the query
+                // has the most messages known to match
+                widerResults.removeLast();
+                if (r.isNarrowerThan(list, predicate)) {
+                    subset = r;
+                }
+            }
+        }
+        filterList = list;
+        filterPredicate = predicate;
+        filteredCollapsed = collapse;
+        FilterResult same = filterCache.get(list, predicate, collapse);
+        if (wider != null && wider.isNarrowerThan(list, predicate)) {
+            // the query is back to one it has been narrowed from
+            widerResults.removeLast();
+            if (same == null) {
+                same = wider;
+            }
+        }
+        // the rows are of no query until they are all checked
+        filterUnfinished = true;
+        if (same != null) {
+            restore(same);
+        } else if (wider != null) {
+            refine(wider);
+        } else {
+            refilter(subset == null ? null : recordStarts(subset));
+        }
+        filterUnfinished = false;
+    }
+
+    /**
+     * @return the result of the current query, which is kept in the cache for going back to it
+     */
+    private FilterResult leaveResult() {
+        FilterResult result = filteredResult;
+        if (result == null || result.size != filteredSize) {
+            result = new FilterResult(filterList, filterPredicate, filteredCollapsed, filteredRows.copy(),
+                    filteredSize, openRecord, openRecordMatched);
+        }
+        filterCache.put(result);
+        return result;
+    }
+
+    /**
+     * Keep a result the query is narrowed from, the oldest results are dropped beyond
+     * a few of them, or beyond a number of rows of all of them.
+     */
+    private void pushWiderResult(FilterResult result) {
+        widerResults.addLast(result);
+        long rows = 0L;
+        for (FilterResult r : widerResults) {
+            rows += r.rows.size();
+        }
+        while (widerResults.size() > 1
+                && (widerResults.size() > MAX_WIDER_RESULTS || rows > MAX_WIDER_RESULT_ROWS)) {
+            rows -= widerResults.removeFirst().rows.size();
+        }
+    }
+
+    /**
+     * @return the first row of each message of the result
+     */
+    private int[] recordStarts(FilterResult result) {
+        final int[] rows = result.rows.toArray();
+        if (result.collapse) {
+            return rows;
+        }
+        final int[] starts = new int[rows.length];
+        int count = 0;
+        for (int row : rows) {
+            if (!modelList.isContinuation(row)) {
+                starts[count++] = row;
+            }
+        }
+        return count == starts.length ? starts : Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Check the messages of a wider result by the current filters, and then the rows appended
+     * after the result.
+     */
+    private void refine(FilterResult wider) {
+        final RowList indexList = new RowList();
+        filterRecords(recordStarts(wider), wider.size, false, indexList);
+        // the last message goes on as in the wider result, it matches if it's still there
+        openRecord = wider.openRecord;
+        openRecordMatched = wider.openRecordMatched && !indexList.isEmpty()
+                && indexList.get(indexList.size() - 1) >= wider.openRecord;
+        filteredResult = null;
+        finishFilter(indexList, wider.size);
+    }
+
+    /**
+     * Take the rows of a result of the same messages, and then check the rows appended after it.
+     */
+    private void restore(FilterResult result) {
+        final RowList indexList = result.rows.copy();
+        openRecord = result.openRecord;
+        openRecordMatched = result.openRecordMatched;
+        filteredResult = result;
+        finishFilter(indexList, result.size);
+    }
+
+    /**
+     * Check all rows by the current filters again and replace the view, on the filter thread.
+     * The field index, and the text index if there is one, tell the messages to check if no
+     * messages are known.
+     * @param known the sorted first rows of messages known to match, or null
+     */
+    private void refilter(int[] known) {
+        final int size = modelList.size();
+        openRecord = -1;
+        int limit = size;
+        int[] starts = null;
+        boolean exact = false;
+        if (known == null && filterList != null && size > 0) {
+            fieldIndex.update(modelList, size);
+            final LogCatBitmap selected = fieldIndex.select(modelList, filterList, filterPredicate);
+            exact = LogCatFieldIndex.isExact(filterList);
+            final LogCatTrigramIndex index = textIndex;
+            final int textLimit = index == null ? 0 : Math.min(size, index.getIndexedRows());
+            final int[] textStarts = textLimit > 0 ? findTextCandidates(index, textLimit) : null;
+            if (textStarts != null) {
+                limit = textLimit;
+                starts = LogCatTrigramIndex.intersect(below(selected.toArray(), limit), textStarts);
+            } else if (exact || selected.getCardinality() < fieldIndex.getMessageCount()) {
+                starts = selected.toArray();
+            }
+        }
+        final RowList indexList = new RowList();
+        if (starts != null) {
+            // only the messages which may match in the rows indexed, all after them
+            filterRecords(starts, limit, exact, indexList);
+            openRecord = modelList.getRecordStart(limit - 1);
+            openRecordMatched = !indexList.isEmpty() && indexList.get(indexList.size() - 1) >= openRecord;
+            filterRows(limit, size, null, indexList);
+        } else {
+            filterRows(0, size, known, indexList);
+        }
+        filteredSize = size;
+        filteredRows = indexList;
+        filteredResult = null;
+        showRows(indexList.copy());
+    }
+
+    /**
+     * @return the sorted rows below the limit
+     */
+    private static int[] below(int[] rows, int limit) {
+        int count = Arrays.binarySearch(rows, limit);
+        count = count < 0 ? -count - 1 : count;
+        return count == rows.length ? rows : Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Check the rows appended after the rows of the view by the current filters, and replace the view.
+     * @param from the rows of the view are of the model rows below it
+     */
+    private void finishFilter(RowList indexList, int from) {
+        final int size = modelList.size();
+        filterRows(from, size, null, indexList);
+        filteredSize = size;
+        filteredRows = indexList;
+        showRows(indexList.copy());
+    }
+
+    private void showRows(final RowList indexList) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
                 synchronized (LogTableModel.this) {
                     viewList = indexList;
                 }
-                SwingUtilities.invokeLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        fireTableDataChanged();
-                    }
-                });
+                fireTableDataChanged();
             }
-        }, 800L, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * @return the use of the cache of the results of the recent queries, as lines of text
+     */
+    public final String describeFilterCache() {
+        return "Filter cache: " + filterCache.getResultCount() + " queries, "
+                + (filterCache.getBytes() >> 10) + " KB of " + (filterCache.getMaxBytes() >> 10) + " KB\n"
+                + "  " + filterCache.getHits() + " hits, " + filterCache.getMisses() + " misses\n";
+    }
+
+    /**
+     * @return the memory of the field index, as of the last time all rows were checked
+     */
+    public final String describeFieldIndex() {
+        return fieldIndex.describe();
+    }
+
+    /**
+     * @return the size of the text index, as a line of text, or empty if there is none
+     */
+    public final String describeTextIndex() {
+        final LogCatTrigramIndex index = textIndex;
+        if (index == null) {
+            return "";
+        }
+        return "Text index: " + index.getIndexedRows() + " of " + modelList.size() + " lines, "
+                + index.getTrigramCount() + " trigrams, " + (index.getBytes() >> 10) + " KB"
+                + (index.isFull() ? " (full)" : "") + "\n";
     }
 
     public final int getModelRowIndex(int row) {
@@ -132,9 +948,7 @@ public final class LogTableModel extends AbstractTableModel implements LogTableV
 
     @Override
     public final String getLogLevel(int row) {
-        final LogCatMessage message;
-        message = modelList.get(getModelRowIndex(row));
-        return String.valueOf(message.getLogLevel().getPriorityLetter());
+        return String.valueOf(modelList.getLogLevel(getModelRowIndex(row)).getPriorityLetter());
     }
 
     @Override
@@ -169,7 +983,7 @@ public final class LogTableModel extends AbstractTableModel implements LogTableV
         if (rowIndex >= getRowCount()) {
             return "";
         }
-        return valueAt(modelList.get(getModelRowIndex(rowIndex)), columnIndex);
+        return valueAt(modelList, getModelRowIndex(rowIndex), columnIndex, collapsed);
     }
 
     public final int doFind(int from, boolean findNextOne, String findingText, boolean matchCase, boolean regex) {
@@ -183,8 +997,9 @@ public final class LogTableModel extends AbstractTableModel implements LogTableV
         if (!matchCase) {
             findingText = findingText.toLowerCase();
         }
+        final int[] candidates = findCandidateRows(findingText, regex);
         int start = 0;
-        int result = doFind(from, findNextOne, findingText, matchCase, regex, size, start);
+        int result = doFind(from, findNextOne, findingText, matchCase, regex, size, start, candidates);
         if (result >= 0) {
             return result;
         }
@@ -195,18 +1010,69 @@ public final class LogTableModel extends AbstractTableModel implements LogTableV
             start = from;
             from = size - 1;
         }
-        return doFind(from, findNextOne, findingText, matchCase, regex, size, start);
+        return doFind(from, findNextOne, findingText, matchCase, regex, size, start, candidates);
+    }
+
+    /**
+     * @return the sorted rows of the view which may have the text, by the text index, the rows
+     * of the messages after the rows indexed are all there, or null if the index can't tell
+     */
+    private int[] findCandidateRows(String findingText, boolean regex) {
+        final LogCatTrigramIndex index = textIndex;
+        final int size = modelList.size();
+        final int limit = index == null ? 0 : Math.min(size, index.getIndexedRows());
+        if (limit <= 0) {
+            return null;
+        }
+        final int[] rows = regex ? index.findPattern(findingText, limit) : index.findLiteral(findingText, limit);
+        if (rows == null) {
+            return null;
+        }
+        final RowList view;
+        synchronized (LogTableModel.this) {
+            view = viewList;
+        }
+        // the view is in the order of the model rows, a collapsed view has the first row of each message
+        final int tail = collapsed && limit < size ? modelList.getRecordStart(limit) : limit;
+        int tailStart = view.binarySearch(tail);
+        tailStart = tailStart < 0 ? -tailStart - 1 : tailStart;
+        final int[] candidates = new int[rows.length + view.size() - tailStart];
+        int count = 0;
+        for (int row : rows) {
+            final int position = view.binarySearch(collapsed ? modelList.getRecordStart(row) : row);
+            if (position >= 0 && position < tailStart && (count == 0 || candidates[count - 1] != position)) {
+                candidates[count++] = position;
+            }
+        }
+        for (int position = tailStart; position < view.size(); ++position) {
+            candidates[count++] = position;
+        }
+        return Arrays.copyOf(candidates, count);
     }
 
-    private int doFind(int from, boolean findNextOne, String findingText,
-                        boolean matchCase, boolean regex, int size, int start) {
+    /**
+     * @param candidates the sorted rows of the view to check, or null to check all rows
+     */
+    private int doFind(int from, boolean findNextOne, String findingText, boolean matchCase,
+                       boolean regex, int size, int start, int[] candidates) {
         final Pattern pattern;
         if (regex) {
             pattern = Pattern.compile(findingText);
         } else {
             pattern = null;
         }
+        int next = 0;
+        if (candidates != null) {
+            next = Arrays.binarySearch(candidates, from);
+            next = next >= 0 ? next : findNextOne ? -next - 1 : -next - 2;
+        }
         while (true) {
+            if (candidates != null) {
+                if (next < 0 || next >= candidates.length) {
+                    break;
+                }
+                from = candidates[next];
+            }
             if (findNextOne) {
                 if (from >= size) {
                     break;
@@ -220,37 +1086,114 @@ public final class LogTableModel extends AbstractTableModel implements LogTableV
             if (idx < 0) {
                 return -1;
             }
-            final LogCatMessage message = modelList.get(idx);
-            if (message == null) {
-                continue;
-            }
-            String msg = message.getMessage();
-            if (msg == null || msg.trim().isEmpty()) {
-                continue;
-            }
-            if (!matchCase) {
-                msg = msg.toLowerCase();
-            }
-            boolean success;
-            if (pattern != null) {
-                success = pattern.matcher(msg).find();
-            } else {
-                success = msg.contains(findingText);
+            // all lines of a message shown as one row
+            final int end = collapsed ? modelList.getRecordEnd(idx, modelList.size()) : idx + 1;
+            boolean success = false;
+            for (int row = idx; row < end && !success; ++row) {
+                String msg = modelList.getMessage(row);
+                if (msg == null || msg.trim().isEmpty()) {
+                    continue;
+                }
+                if (!matchCase) {
+                    msg = msg.toLowerCase();
+                }
+                if (pattern != null) {
+                    success = pattern.matcher(msg).find();
+                } else {
+                    success = msg.contains(findingText);
+                }
             }
             if (success) {
                 return from;
             }
             if (findNextOne) {
                 ++from;
+                ++next;
             } else {
                 --from;
+                --next;
             }
         }
         return -1;
     }
 
+    /**
+     * Find the first row of the view at or after the time, should call it from event dispatch thread.
+     * @param text "[MM-dd ]HH:mm[:ss[.SSS]]", a time without a date is a time of the day of the
+     *             first row, or of the next day if it's before the first row
+     * @return the row of the view, the last row if all rows are before the time,
+     * or -1 if the text is not a time or no row has a time
+     */
+    public final int findTime(String text) {
+        final LogCatTime.Point point = LogCatTime.parse(text, false);
+        final RowList rows;
+        synchronized (LogTableModel.this) {
+            rows = viewList;
+        }
+        if (point == null || rows == null) {
+            return -1;
+        }
+        final int size = rows.size();
+        long base = -1L;
+        for (int i = 0; i < size && base < 0L; ++i) {
+            base = modelList.getTimeValue(rows.get(i));
+        }
+        if (base < 0L) {
+            return -1;
+        }
+        long target;
+        if (point.hasDate) {
+            target = base - base % LogCatTime.MILLIS_PER_YEAR + point.millis;
+            if (target < base - LogCatTime.MILLIS_PER_YEAR / 2L) {
+                target += LogCatTime.MILLIS_PER_YEAR;
+            }
+        } else {
+            target = base - base % LogCatTime.MILLIS_PER_DAY + point.millis;
+            if (target < base) {
+                target += LogCatTime.MILLIS_PER_DAY;
+            }
+        }
+        if (modelList.isTimeSorted()) {
+            // binary search of the view, the rows without a time count as the row before them
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                int row = middle;
+                long time = -1L;
+                while (row >= 0 && (time = modelList.getTimeValue(rows.get(row))) < 0L) {
+                    --row;
+                }
+                if (time < target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return Math.min(low, size - 1);
+        }
+        if (timeIndex == null || timeIndex.getStoreSize() != modelList.size()) {
+            timeIndex = new LogCatTimeIndex(modelList);
+        }
+        // the earliest row at or after the time which is shown by the view
+        int result = -1;
+        int resultRow = Integer.MAX_VALUE;
+        for (int i = timeIndex.lowerBound(target); i < timeIndex.size(); ++i) {
+            final int row = timeIndex.getRow(i);
+            if (result >= 0 && timeIndex.getTime(i) > modelList.getTimeValue(resultRow)) {
+                break;
+            }
+            final int position = rows.binarySearch(row);
+            if (position >= 0 && row < resultRow) {
+                result = position;
+                resultRow = row;
+            }
+        }
+        return result < 0 ? size - 1 : result;
+    }
+
     public final SubLogTableModel subView(int modelRow, int halfRegion) {
-        final int rowCount = modelSize;
+        final int rowCount = modelList.size();
         if (modelRow >= rowCount || modelRow < 0) {
             return null;
         }
@@ -265,21 +1208,27 @@ public final class LogTableModel extends AbstractTableModel implements LogTableV
         if (down < up) {
             return null;
         }
-        ArrayList<LogCatMessage> subList = new ArrayList<>(down - up + 2);
-        for (int i = up; i <= down; ++i) {
-            subList.add(modelList.get(i));
-        }
-        return new SubLogTableModel(subList, (modelRow - up));
+        return new SubLogTableModel(modelList, parseStats, up, down + 1, (modelRow - up));
     }
 
     public static final class SubLogTableModel extends AbstractTableModel implements LogTableView.CommonModel {
-        private final List<LogCatMessage> modelList;
+        private final LogCatStore modelList;
+        private final LogCatParseStats parseStats;
+        /** the first row of the store in this model */
+        private final int first;
         private final int modelSize;
         private final int from;
 
-        public SubLogTableModel(List<LogCatMessage> list, int from) {
-            this.modelList = Collections.unmodifiableList(list);
-            this.modelSize = modelList.size();
+        /**
+         * @param first the first row of the store to show
+         * @param last the row after the last row of the store to show
+         * @param from the row of this model to select
+         */
+        public SubLogTableModel(LogCatStore store, LogCatParseStats stats, int first, int last, int from) {
+            this.modelList = store;
+            this.parseStats = stats;
+            this.first = first;
+            this.modelSize = last - first;
             this.from = from;
         }
 
@@ -287,11 +1236,14 @@ public final class LogTableModel extends AbstractTableModel implements LogTableV
             return from;
         }
 
+        @Override
+        public LogCatParseStats getParseStats() {
+            return parseStats;
+        }
+
         @Override
         public final String getLogLevel(int row) {
-            final LogCatMessage message;
-            message = modelList.get(row);
-            return String.valueOf(message.getLogLevel().getPriorityLetter());
+            return String.valueOf(modelList.getLogLevel(first + row).getPriorityLetter());
         }
 
         @Override
@@ -324,34 +1276,43 @@ public final class LogTableModel extends AbstractTableModel implements LogTableV
             if (rowIndex >= getRowCount()) {
                 return "";
             }
-            return LogTableModel.valueAt(modelList.get(rowIndex), columnIndex);
+            return LogTableModel.valueAt(modelList, first + rowIndex, columnIndex, false);
         }
     }
 
-    private static Object valueAt(LogCatMessage message, int columnIndex) {
-        if (message == null) {
+    /**
+     * @param collapsed whether the row is the first row of a message shown as one row
+     */
+    private static Object valueAt(LogCatStore store, int row, int columnIndex, boolean collapsed) {
+        if (row < 0) {
             return "";
         }
-        if (message.isOnlyBody() && columnIndex != 7) {
+        if (collapsed && columnIndex == 8) {
+            final int lines = store.getRecordEnd(row, store.size()) - row;
+            return lines > 1 ? store.getMessage(row) + "  [+" + (lines - 1) + " lines]" : store.getMessage(row);
+        }
+        if (store.isOnlyBody(row) && columnIndex != 8) {
             return "";
         }
         switch (columnIndex) {
             case 0:
-                return message.getLogLevel().getPriorityLetter();
+                return store.getSource(row);
             case 1:
-                return message.getTime();
+                return store.getLogLevel(row).getPriorityLetter();
             case 2:
-                return message.getPid();
+                return store.getTime(row);
             case 3:
-                return message.getTid();
+                return store.getPid(row);
             case 4:
-                return message.getAppName();
+                return store.getTid(row);
             case 5:
-                return message.getThreadName();
+                return store.getAppName(row);
             case 6:
-                return message.getTag();
+                return store.getThreadName(row);
             case 7:
-                return message.getMessage();
+                return store.getTag(row);
+            case 8:
+                return store.getMessage(row);
             default:
                 return "";
         }
@@ -17,13 +17,16 @@
 package com.johnsoft.ui;
 
 import com.johnsoft.logcat.LogCatFilter;
-import com.johnsoft.logcat.LogCatMessageParser;
+import com.johnsoft.logcat.LogCatParseStats;
 import com.johnsoft.logcat.LogLevel;
 import com.johnsoft.logcat.LogicalPredicate;
 
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
@@ -50,6 +53,9 @@ public class LogTableView extends JTable {
     private JComboBox<LogicalPredicate> logicalSelector;
     private JTextField messageFilter;
     private JTextField gotoLine;
+    private JTextField gotoTime;
+    private boolean autoScroll;
+    private boolean sourceColumnVisible;
 
     public LogTableView() {
         init();
@@ -73,6 +79,40 @@ public class LogTableView extends JTable {
         return gotoLine;
     }
 
+    public JTextField getGotoTime() {
+        return gotoTime;
+    }
+
+    /**
+     * @param autoScroll whether to keep the last row visible when rows are inserted
+     */
+    public void setAutoScroll(boolean autoScroll) {
+        this.autoScroll = autoScroll;
+        if (autoScroll) {
+            scrollToLastRow();
+        }
+    }
+
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        super.tableChanged(e);
+        if (autoScroll && e.getType() == TableModelEvent.INSERT) {
+            scrollToLastRow();
+        }
+    }
+
+    private void scrollToLastRow() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                final int lastRow = getRowCount() - 1;
+                if (lastRow >= 0) {
+                    scrollRectToVisible(getCellRect(lastRow, 0, true));
+                }
+            }
+        });
+    }
+
     public void doFindAction(boolean findNextOne, String findingText,
                              boolean matchCase, boolean regex, JLabel resultDescription) {
         int row = getSelectedRow();
@@ -131,6 +171,9 @@ public class LogTableView extends JTable {
         table.setIntercellSpacing(new Dimension(0, 1));
         table.setAutoResizeMode(AUTO_RESIZE_OFF);
         table.getTableHeader().setReorderingAllowed(false);
+        configColumn(table, "Source", true, 120);
+        // shown only when several log files are merged
+        setColumnWidth(table, "Source", 0);
         configColumn(table, "Level", true, 50);
         configColumn(table, "Time", true, 150);
         configColumn(table, "PID", true, 75);
@@ -153,16 +196,7 @@ public class LogTableView extends JTable {
                         final String identifier = strings[strings.length - 1];
                         if (identifier != null && !identifier.trim().isEmpty()) {
                             // hide column
-                            TableColumnModel columnModel = table.getColumnModel();
-                            int columnIdx = columnModel.getColumnIndex(identifier);
-                            TableColumn column = columnModel.getColumn(columnIdx);
-                            column.setPreferredWidth(0);
-                            column.setMinWidth(0);
-                            column.setMaxWidth(0);
-                            column = table.getTableHeader().getColumnModel().getColumn(columnIdx);
-                            column.setPreferredWidth(0);
-                            column.setMinWidth(0);
-                            column.setMaxWidth(0);
+                            setColumnWidth(table, identifier, 0);
                         }
                     }
                 }
@@ -176,7 +210,8 @@ public class LogTableView extends JTable {
                             final int columnIdx = columnModel.getColumnIndex(headers[headers.length - 1]);
                             final TableColumn column = columnModel.getColumn(columnIdx);
                             if (fitTextColumnWidth.getState()) {
-                                final String maxLengthMessage = LogCatMessageParser.getMaxLengthMessage();
+                                final String maxLengthMessage = ((CommonModel) table.getModel())
+                                        .getParseStats().getMaxLengthMessage();
                                 final Font font = table.getFont();
                                 final FontMetrics fm = table.getFontMetrics(font);
                                 column.setPreferredWidth(fm.stringWidth(maxLengthMessage) + 40);
@@ -203,6 +238,12 @@ public class LogTableView extends JTable {
     private void init() {
         setModel(new LogTableModel());
         initDefaults(this);
+        ((LogTableModel)getModel()).addFilteringListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                showFiltering(((LogTableModel)getModel()).isFiltering());
+            }
+        });
 
         addMouseListener(new MouseAdapter() {
             private final String prefixText = "peek context surround";
@@ -215,6 +256,9 @@ public class LogTableView extends JTable {
                     if (subModel != null) {
                         final JTable subTable = new JTable(subModel);
                         initDefaults(subTable);
+                        if (sourceColumnVisible) {
+                            showSourceColumn(subTable);
+                        }
                         JDialog peeContextTip = new JDialog(window, "SubContextView[" + modelRow + "]");
                         JScrollPane scrollPane = new JScrollPane(subTable);
                         scrollPane.getHorizontalScrollBar().setUnitIncrement(5);
@@ -235,6 +279,13 @@ public class LogTableView extends JTable {
                     }
                 }
             }));
+            private final JCheckBoxMenuItem collapseMessages = (JCheckBoxMenuItem) popupMenu.add(
+                    new JCheckBoxMenuItem(new AbstractAction("collapse messages of several lines") {
+                        @Override
+                        public void actionPerformed(ActionEvent e) {
+                            ((LogTableModel)getModel()).setCollapsed(collapseMessages.getState());
+                        }
+                    }));
             private int modelRow;
 
             @Override
@@ -358,6 +409,14 @@ public class LogTableView extends JTable {
                 });
             }
         });
+        gotoTime = new JTextField(12);
+        gotoTime.setToolTipText("[MM-dd ]HH:mm[:ss[.SSS]]");
+        gotoTime.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                selectRow(LogTableView.this, ((LogTableModel) getModel()).findTime(gotoTime.getText()));
+            }
+        });
     }
 
     private void doFilter() {
@@ -369,6 +428,54 @@ public class LogTableView extends JTable {
         }
     }
 
+    /**
+     * @param width the fixed width of the column, 0 to hide it
+     */
+    private static void setColumnWidth(JTable table, Object identifier, int width) {
+        TableColumnModel columnModel = table.getColumnModel();
+        int columnIdx = columnModel.getColumnIndex(identifier);
+        TableColumn column = columnModel.getColumn(columnIdx);
+        column.setPreferredWidth(width);
+        column.setMinWidth(width);
+        column.setMaxWidth(width);
+        column = table.getTableHeader().getColumnModel().getColumn(columnIdx);
+        column.setPreferredWidth(width);
+        column.setMinWidth(width);
+        column.setMaxWidth(width);
+    }
+
+    /**
+     * Tell in the header of the text column that a change of the filters is not done yet,
+     * the rows shown may be only a part of the rows to show.
+     */
+    private void showFiltering(boolean filtering) {
+        final String text = LogTableModel.COLUMN_HEADERS[LogTableModel.COLUMN_HEADERS.length - 1];
+        final TableColumn column = getColumn(text);
+        // looked up by the header text otherwise
+        column.setIdentifier(text);
+        column.setHeaderValue(filtering ? text + " (filtering...)" : text);
+        getTableHeader().repaint();
+    }
+
+    private static void showSourceColumn(JTable table) {
+        final TableColumn column = table.getColumn("Source");
+        column.setMaxWidth(Integer.MAX_VALUE);
+        column.setMinWidth(15);
+        column.setPreferredWidth(120);
+    }
+
+    /**
+     * Show the column of the log file of each row, when several log files are merged.
+     */
+    public void setSourceColumnVisible(boolean visible) {
+        sourceColumnVisible = visible;
+        if (visible) {
+            showSourceColumn(this);
+        } else {
+            setColumnWidth(this, "Source", 0);
+        }
+    }
+
     private static void configColumn(JTable table, Object identifer, boolean resizable, int preferredWidth) {
         TableColumn column = table.getColumn(identifer);
         column.setResizable(resizable);
@@ -442,6 +549,8 @@ public class LogTableView extends JTable {
 
     public interface CommonModel {
         String getLogLevel(int row);
+
+        LogCatParseStats getParseStats();
     }
 }
 
@@ -35,6 +35,9 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.swing.AbstractAction;
@@ -61,10 +64,18 @@ import javax.swing.WindowConstants;
 import javax.swing.border.EmptyBorder;
 import javax.swing.filechooser.FileFilter;
 
+import com.johnsoft.logcat.LogCatCompressedParser;
+import com.johnsoft.logcat.LogCatFileMerger;
+import com.johnsoft.logcat.LogCatFormatDetector;
+import com.johnsoft.logcat.LogCatFileTailer;
+import com.johnsoft.logcat.LogCatIndexFile;
 import com.johnsoft.logcat.LogCatMessage;
 import com.johnsoft.logcat.LogCatMessageParser;
 import com.johnsoft.logcat.LogCatMessageParser2;
 import com.johnsoft.logcat.LogCatMessageParser3;
+import com.johnsoft.logcat.LogCatParseStats;
+import com.johnsoft.logcat.LogCatStreamParser;
+import com.johnsoft.logcat.LogCatTrigramIndex;
 
 /**
  * @author John Kenrinus Lee
@@ -72,6 +83,9 @@ import com.johnsoft.logcat.LogCatMessageParser3;
  */
 public class Reader {
     private static final String OS = System.getProperty("os.name").toLowerCase();
+    private static final long FOLLOW_INTERVAL = 200L;
+    /** smaller log files are parsed in less time than a sidecar file saves */
+    private static final long MIN_INDEXED_SIZE = 8L << 20;
     private static final String[] MESSAGES = new String[] {
             "[ 08-11 19:11:07.132   495:0x1ef D/dtag     ]", //$NON-NLS-1$
             "debug message",                                 //$NON-NLS-1$
@@ -121,6 +135,16 @@ public class Reader {
     private LogTableModel logTableModel;
     private LogTableView tableView;
     private JFrame jFrame;
+    private JLabel statusBar;
+    private volatile boolean following;
+    /** whether to read the message texts from the log file instead of keeping them */
+    private boolean lazyText;
+    /** null to keep the rows on the heap, "direct" or "mapped" to keep them off the heap */
+    private String offHeapStorage;
+    /** whether to keep the parsed rows of a big log file in a sidecar file, for opening it again */
+    private boolean useIndex = true;
+    /** whether to index the message texts after a load, for the text filters and finds */
+    private boolean textIndex;
 
     private void registerFindShotcutAction() {
         Toolkit.getDefaultToolkit().addAWTEventListener(new AWTEventListener() {
@@ -247,14 +271,15 @@ public class Reader {
         }, AWTEvent.KEY_EVENT_MASK);
     }
 
-    private void show() {
+    private void show(boolean followable) {
         tableView = new LogTableView();
         logTableModel = (LogTableModel) tableView.getModel();
         JPanel toolbar = new JPanel(new BorderLayout());
         toolbar.setBorder(new EmptyBorder(5, 10, 5, 10));
         toolbar.add(new JLabel("<html><b>Message Filter Example:</b> <br/>" +
                 "<font color='red'>[pid:1024 tid:64 tag:Activ ]<br/>" +
-                "[app:robo thread:main text:Con]</font></html>"),
+                "[app:robo thread:main text:Con]<br/>" +
+                "[time:12:59..13:00]</font></html>"),
                 BorderLayout.WEST);
         toolbar.add(tableView.getMessageFilter(), BorderLayout.CENTER);
         JPanel selectors = new JPanel();
@@ -262,14 +287,38 @@ public class Reader {
         selectors.setLayout(boxLayout);
         selectors.add(tableView.getLogicalSelector());
         selectors.add(tableView.getLevelSelector());
+        final JCheckBox follow = new JCheckBox("Follow", following);
+        follow.setToolTipText("keep loading the lines appended to the log file");
+        follow.setEnabled(followable);
+        follow.addItemListener(new ItemListener() {
+            @Override
+            public void itemStateChanged(ItemEvent e) {
+                following = e.getStateChange() == ItemEvent.SELECTED;
+                tableView.setAutoScroll(following);
+            }
+        });
+        tableView.setAutoScroll(following);
+        selectors.add(follow);
         selectors.add(new JLabel("<html><b>Go to Line:</b> </html>"));
         selectors.add(tableView.getGotoLine());
+        selectors.add(new JLabel("<html><b>Go to Time:</b> </html>"));
+        selectors.add(tableView.getGotoTime());
         toolbar.add(selectors, BorderLayout.EAST);
         JPanel jPanel = new JPanel(new BorderLayout());
         JScrollPane jScrollPane = new JScrollPane(tableView);
         jScrollPane.getHorizontalScrollBar().setUnitIncrement(20);
         jPanel.add(jScrollPane, BorderLayout.CENTER);
         jPanel.add(toolbar, BorderLayout.NORTH);
+        statusBar = new JLabel(" ");
+        statusBar.setBorder(new EmptyBorder(2, 10, 2, 10));
+        statusBar.setToolTipText("click for the statistics of the log");
+        statusBar.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                showParseStats();
+            }
+        });
+        jPanel.add(statusBar, BorderLayout.SOUTH);
         jFrame = new JFrame("LogcatFileReader[loading...]");
         jFrame.setContentPane(jPanel);
         jFrame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
@@ -284,52 +333,449 @@ public class Reader {
         }
     }
 
-    public void main(final File logFile, final LogCatMessageParser parser) {
-        new Thread("Fetch-Data-Thread") {
+    private void showParseStats() {
+        final JTextArea text = new JTextArea(logTableModel.getParseStats().describe(20)
+                + logTableModel.describeFilterCache() + logTableModel.describeFieldIndex()
+                + logTableModel.describeTextIndex());
+        text.setEditable(false);
+        final JScrollPane scrollPane = new JScrollPane(text);
+        scrollPane.setPreferredSize(new Dimension(500, 400));
+        JOptionPane.showMessageDialog(jFrame, scrollPane, "Statistics", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private void showProgress(final String title, String status) {
+        if (offHeapStorage != null && logTableModel != null) {
+            status += ", " + (logTableModel.getOffHeapBytes() >> 20) + " MB off heap";
+        }
+        final String text = status;
+        EventQueue.invokeLater(new Runnable() {
             @Override
             public void run() {
-                List<LogCatMessage> messageList;
-                if (logFile == null) {
-                    messageList = parser.processLogLines(MESSAGES);
-                } else {
+                jFrame.setTitle(title);
+                statusBar.setText(text);
+            }
+        });
+    }
+
+    /**
+     * Wait for the table model to be created, then fetch the rows into it.
+     */
+    private abstract class FetchDataThread extends Thread {
+        protected int rowCount;
+        private final LogCatParseStats stats;
+
+        FetchDataThread(LogCatMessageParser parser) {
+            super("Fetch-Data-Thread");
+            stats = parser.getStats();
+        }
+
+        @Override
+        public final void run() {
+            synchronized(Reader.this) {
+                try {
+                    while (logTableModel == null) {
+                        Reader.this.wait(1000L);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (logTableModel != null) {
+                logTableModel.setParseStats(stats);
+                if (offHeapStorage != null) {
                     try {
-                        messageList = parser.processLogLines(logFile);
+                        logTableModel.useOffHeapStorage("mapped".equals(offHeapStorage));
                     } catch (IOException e) {
-                        JOptionPane.showMessageDialog(null, "Failed to load the log file");
                         e.printStackTrace();
-                        messageList = parser.processLogLines(MESSAGES);
+                        offHeapStorage = null;
+                    }
+                }
+                fetch();
+                loaded();
+            }
+        }
+
+        protected abstract void fetch();
+
+        /**
+         * The rows are loaded, the rows appended after it are not indexed.
+         */
+        protected final void loaded() {
+            if (textIndex) {
+                logTableModel.buildTextIndex();
+            }
+        }
+
+        /**
+         * @param bytes the bytes of the log files parsed since the start time
+         */
+        protected final void setParseTime(long bytes, long startTime) {
+            stats.setParseTime(bytes, System.currentTimeMillis() - startTime);
+        }
+
+        protected final void append(List<LogCatMessage> messages) {
+            logTableModel.appendData(messages);
+            // a row per line
+            for (LogCatMessage message : messages) {
+                rowCount += 1 + message.getBodyLineCount();
+            }
+        }
+    }
+
+    public void main(final File logFile, final LogCatMessageParser parser) {
+        main(logFile, parser, false);
+    }
+
+    /**
+     * Keep only where the message texts are in the log file, so a log larger than the heap
+     * can be loaded, the texts are read again when they are shown, filtered or found.
+     * Should call it before {@link #main(File, LogCatMessageParser, boolean)}.
+     */
+    public void setLazyText(boolean lazyText) {
+        this.lazyText = lazyText;
+    }
+
+    /**
+     * Keep the rows off the heap, so the heap and the pauses of the garbage collector don't
+     * grow with the log. Should call it before main.
+     * @param storage "direct" for direct buffers, "mapped" for buffers mapped from a scratch file
+     */
+    public void setOffHeapStorage(String storage) {
+        if (!"direct".equals(storage) && !"mapped".equals(storage)) {
+            throw new IllegalArgumentException("Unknown storage " + storage);
+        }
+        this.offHeapStorage = storage;
+    }
+
+    /**
+     * Map the rows of a log file from its sidecar file, which is written after the log file
+     * is parsed, instead of parsing it again, see {@link LogCatIndexFile}. A log file being
+     * followed is always parsed. Should call it before main.
+     */
+    public void setUseIndex(boolean useIndex) {
+        this.useIndex = useIndex;
+    }
+
+    /**
+     * Index the message texts in the background after a load, so a text filter or a find
+     * checks only the lines which may have the text, see {@link LogCatTrigramIndex}.
+     * Should call it before main.
+     */
+    public void setTextIndex(boolean textIndex) {
+        this.textIndex = textIndex;
+    }
+
+    /**
+     * @param follow whether to keep parsing what is appended to the log file
+     */
+    public void main(final File logFile, final LogCatMessageParser parser, boolean follow) {
+        // a compressed file is not written as it's read
+        final boolean compressed = logFile != null && LogCatCompressedParser.isCompressed(logFile);
+        following = follow && logFile != null && !compressed;
+        new FetchDataThread(parser) {
+            @Override
+            protected void fetch() {
+                final long startTime = System.currentTimeMillis();
+                if (logFile == null) {
+                    append(parser.processLogLines(MESSAGES));
+                    showProgress("LogcatFileReader", "Loaded " + rowCount + " lines");
+                    return;
+                }
+                if (compressed) {
+                    fetchCompressed(startTime);
+                    return;
+                }
+                // a followed file grows, its sidecar would be stale soon
+                final boolean indexed = useIndex && !following && logFile.length() >= MIN_INDEXED_SIZE;
+                if (indexed) {
+                    rowCount = logTableModel.loadIndex(logFile, parser);
+                    if (rowCount >= 0) {
+                        setParseTime(logFile.length(), startTime);
+                        showProgress("LogcatFileReader", "Loaded " + rowCount + " lines from the index in "
+                                + (System.currentTimeMillis() - startTime) + " ms");
+                        return;
                     }
+                    rowCount = 0;
                 }
-                synchronized(Reader.this) {
+                if (lazyText) {
                     try {
-                        while (logTableModel == null) {
-                            Reader.this.wait(1000L);
+                        logTableModel.openTextSource(logFile);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                final LogCatFileTailer tailer = new LogCatFileTailer(logFile, parser);
+                if (lazyText) {
+                    // the texts of the rows loaded are not in the file any more
+                    tailer.setTruncationListener(new LogCatFileTailer.TruncationListener() {
+                        @Override
+                        public void onTruncated() {
+                            logTableModel.truncateTextSource();
+                        }
+                    });
+                }
+                try {
+                    tailer.load(new LogCatMessageParser.ParseListener() {
+                        @Override
+                        public void onMessagesParsed(List<LogCatMessage> messages,
+                                                     long parsedBytes, long totalBytes) {
+                            append(messages);
+                            final long percent = totalBytes <= 0L ? 100L : parsedBytes * 100L / totalBytes;
+                            showProgress("LogcatFileReader[loading " + percent + "%]",
+                                    "Loading " + logFile.getName() + ": " + percent + "%, " + rowCount + " lines");
                         }
-                    } catch (InterruptedException e) {
+                    }, following);
+                    setParseTime(tailer.getPosition(), startTime);
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(null, "Failed to load the log file");
+                    e.printStackTrace();
+                    tailer.close();
+                    append(parser.processLogLines(MESSAGES));
+                    showProgress("LogcatFileReader", "Loaded " + rowCount + " lines");
+                    return;
+                }
+                showProgress("LogcatFileReader", "Loaded " + rowCount + " lines in "
+                        + (System.currentTimeMillis() - startTime) + " ms, "
+                        + String.format("%.1f%%", parser.getDictionary().getHitRatio() * 100.0)
+                        + " of header values shared");
+                if (indexed) {
+                    try {
+                        logTableModel.writeIndex(logFile, parser, tailer.getPosition());
+                    } catch (IOException e) {
                         e.printStackTrace();
                     }
                 }
-                if (logTableModel != null) {
-                    logTableModel.setDataSource(messageList);
-                    EventQueue.invokeLater(new Runnable() {
+                loaded();
+                follow(tailer);
+            }
+
+            private void fetchCompressed(long startTime) {
+                try {
+                    new LogCatCompressedParser(logFile, parser).parse(new LogCatMessageParser.ParseListener() {
+                        @Override
+                        public void onMessagesParsed(List<LogCatMessage> messages,
+                                                     long parsedBytes, long totalBytes) {
+                            append(messages);
+                            final long percent = totalBytes <= 0L ? 100L : parsedBytes * 100L / totalBytes;
+                            showProgress("LogcatFileReader[loading " + percent + "%]",
+                                    "Loading " + logFile.getName() + ": " + percent + "%, " + rowCount + " lines");
+                        }
+                    });
+                    setParseTime(logFile.length(), startTime);
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(null, "Failed to load the log file");
+                    e.printStackTrace();
+                    showProgress("LogcatFileReader", "Failed to load " + logFile.getName() + ": " + e.getMessage());
+                    return;
+                }
+                showProgress("LogcatFileReader", "Loaded " + rowCount + " lines in "
+                        + (System.currentTimeMillis() - startTime) + " ms");
+            }
+
+            private void follow(LogCatFileTailer tailer) {
+                final LogCatMessageParser.ParseListener listener = new LogCatMessageParser.ParseListener() {
+                    @Override
+                    public void onMessagesParsed(List<LogCatMessage> messages, long parsedBytes, long totalBytes) {
+                        append(messages);
+                    }
+                };
+                try {
+                    while (true) {
+                        // poll at a fixed pace, each poll takes all appended lines in a few batches
+                        Thread.sleep(FOLLOW_INTERVAL);
+                        if (!following) {
+                            continue;
+                        }
+                        try {
+                            if (tailer.poll(listener)) {
+                                showProgress("LogcatFileReader", "Following " + logFile.getName()
+                                        + ": " + rowCount + " lines");
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    tailer.close();
+                }
+            }
+        }.start();
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                show(logFile != null);
+            }
+        });
+    }
+
+    /**
+     * Show the log files merged in time order, with the column of the file of each row,
+     * see {@link LogCatFileMerger}.
+     */
+    public void main(final List<File> logFiles, final LogCatMessageParser parser) {
+        main(logFiles, Collections.nCopies(logFiles.size(), parser), parser);
+    }
+
+    /**
+     * Same as {@link #main(List, LogCatMessageParser)}, but each file has a format of its own.
+     * @param parsers the parser of each file, in the order of the files
+     * @param parser the parser given the statistics of all files
+     */
+    public void main(final List<File> logFiles, final List<LogCatMessageParser> parsers,
+                     final LogCatMessageParser parser) {
+        following = false;
+        new FetchDataThread(parser) {
+            @Override
+            protected void fetch() {
+                final long startTime = System.currentTimeMillis();
+                try {
+                    new LogCatFileMerger(logFiles, parsers, parser).parse(new LogCatMessageParser.ParseListener() {
+                        @Override
+                        public void onMessagesParsed(List<LogCatMessage> messages,
+                                                     long parsedBytes, long totalBytes) {
+                            append(messages);
+                            final long percent = totalBytes <= 0L ? 100L : parsedBytes * 100L / totalBytes;
+                            showProgress("LogcatFileReader[loading " + percent + "%]",
+                                    "Merging " + logFiles.size() + " files: " + percent + "%, " + rowCount + " lines");
+                        }
+                    });
+                    long bytes = 0L;
+                    for (File file : logFiles) {
+                        bytes += file.length();
+                    }
+                    setParseTime(bytes, startTime);
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(null, "Failed to load the log files");
+                    e.printStackTrace();
+                    showProgress("LogcatFileReader", "Failed to merge the log files: " + e.getMessage());
+                    return;
+                }
+                showProgress("LogcatFileReader", "Merged " + rowCount + " lines of " + logFiles.size()
+                        + " files in " + (System.currentTimeMillis() - startTime) + " ms");
+            }
+        }.start();
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                show(false);
+                tableView.setSourceColumnVisible(true);
+            }
+        });
+    }
+
+    /**
+     * Show the lines of a stream as they come, like the standard input or the output of a command.
+     * @param name describes the stream in the status bar
+     */
+    public void main(final InputStream input, final String name, final LogCatMessageParser parser) {
+        following = true;
+        new FetchDataThread(parser) {
+            private long lastProgressTime;
+
+            @Override
+            protected void fetch() {
+                try {
+                    new LogCatStreamParser(input, parser).parse(new LogCatMessageParser.ParseListener() {
                         @Override
-                        public void run() {
-                            jFrame.setTitle("LogcatFileReader");
+                        public void onMessagesParsed(List<LogCatMessage> messages,
+                                                     long parsedBytes, long totalBytes) {
+                            append(messages);
+                            final long now = System.currentTimeMillis();
+                            if (now - lastProgressTime >= FOLLOW_INTERVAL) {
+                                lastProgressTime = now;
+                                showProgress("LogcatFileReader", "Reading " + name + ": " + rowCount + " lines");
+                            }
                         }
                     });
+                    showProgress("LogcatFileReader", "End of " + name + ": " + rowCount + " lines");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    showProgress("LogcatFileReader", "Failed to read " + name + ": " + e.getMessage());
                 }
             }
         }.start();
         EventQueue.invokeLater(new Runnable() {
             @Override
             public void run() {
-                show();
+                show(true);
             }
         });
     }
 
     private static File logFile;
+    /** more than one log file to merge */
+    private static List<File> logFiles;
+    private static InputStream logStream;
+    private static String logStreamName;
     private static LogCatMessageParser parser;
+    private static boolean follow;
+    private static boolean lazy;
+    private static String storage;
+    private static boolean noIndex;
+    private static boolean textIndexed;
+
+    /**
+     * Start the command and pipe its output, the process is destroyed on exit.
+     */
+    private static InputStream exec(String command) throws IOException {
+        final List<String> tokens = new ArrayList<>();
+        for (String token : command.trim().split("\\s+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        final Process process = new ProcessBuilder(tokens)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                process.destroy();
+            }
+        });
+        return process.getInputStream();
+    }
+
+    /**
+     * @return the parser of the format given by its name, or null if it's not a format
+     */
+    private static LogCatMessageParser getParser(String format) {
+        if (format == null) {
+            return null;
+        }
+        switch (format) {
+            case "long":
+                return new LogCatMessageParser();
+            case "threadtime":
+                return new LogCatMessageParser2();
+            case "javacustom":
+                return new LogCatMessageParser3();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Tell the format from samples of the log file, warn if it's none of the known formats.
+     * @return the parser of the format, or null if it's not known
+     */
+    private static LogCatMessageParser detectParser(File file) {
+        try {
+            final LogCatMessageParser detected = LogCatFormatDetector.detect(file);
+            if (detected == null) {
+                JOptionPane.showMessageDialog(null, "No known log format found in " + file.getName()
+                        + ", parsing it as long, give the format after the file to override");
+            } else {
+                System.err.println("Detected the " + detected.getFormat() + " format of " + file.getName());
+            }
+            return detected;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
     public static void main(final String[] args) {
         EventQueue.invokeLater(new Runnable() {
@@ -342,29 +788,76 @@ public class Reader {
                     e.printStackTrace();
                 }
 
-                parser = new LogCatMessageParser(); //default: -v long
-                if (args.length > 0) {
-                    logFile = new File(args[0]);
-                    if (!logFile.exists() || !logFile.isFile() || !logFile.canRead()) {
-                        logFile = null;
+                // detected from the log file if not given
+                parser = null;
+                final List<String> arguments = new ArrayList<>();
+                String command = null;
+                for (int i = 0; i < args.length; ++i) {
+                    if ("-f".equals(args[i]) || "--follow".equals(args[i])) {
+                        follow = true;
+                    } else if ("--lazy".equals(args[i])) {
+                        lazy = true;
+                    } else if ("--no-index".equals(args[i])) {
+                        noIndex = true;
+                    } else if ("--text-index".equals(args[i])) {
+                        textIndexed = true;
+                    } else if ("--store".equals(args[i]) && i + 1 < args.length) {
+                        storage = args[++i];
+                    } else if ("--exec".equals(args[i]) && i + 1 < args.length) {
+                        command = args[++i];
+                    } else {
+                        arguments.add(args[i]);
+                    }
+                }
+                if (command != null || (arguments.size() > 0 && "-".equals(arguments.get(0)))) {
+                    if (command != null) {
+                        try {
+                            logStream = exec(command);
+                            logStreamName = command;
+                        } catch (IOException e) {
+                            JOptionPane.showMessageDialog(null, "Failed to run " + command);
+                            e.printStackTrace();
+                        }
+                    } else {
+                        logStream = System.in;
+                        logStreamName = "stdin";
+                    }
+                    // the format is the only positional argument left, or comes after "-"
+                    final String format = command != null
+                            ? (arguments.isEmpty() ? null : arguments.get(0))
+                            : (arguments.size() == 2 ? arguments.get(1) : null);
+                    // a stream can't be sampled without waiting for it, default: -v long
+                    parser = getParser(format);
+                    if (parser == null) {
+                        parser = new LogCatMessageParser();
                     }
-                    if (args.length == 2) {
-                        switch (args[1]) {
-                            case "threadtime":
-                                parser = new LogCatMessageParser2();
-                                break;
-                            case "javacustom":
-                                parser = new LogCatMessageParser3();
-                                break;
+                } else if (arguments.size() > 0) {
+                    // log files or directories of log files, and the format at last
+                    final String format = arguments.get(arguments.size() - 1);
+                    parser = getParser(format);
+                    final List<File> files = new ArrayList<>();
+                    for (String argument : arguments) {
+                        final File file = new File(argument);
+                        if (file.isDirectory()) {
+                            files.addAll(LogCatFileMerger.listLogFiles(file));
+                        } else if (file.isFile() && file.canRead()) {
+                            files.add(file);
+                        } else if (!argument.equals(format) || arguments.size() == 1) {
+                            System.err.println("Can't read " + argument);
                         }
                     }
+                    if (files.size() == 1) {
+                        logFile = files.get(0);
+                    } else if (files.size() > 1) {
+                        logFiles = files;
+                    }
                 } else {
                     final JDialog dialog = new JDialog((JFrame)null, true);
                     final JFileChooser fileChooser = new JFileChooser();
                     fileChooser.setDragEnabled(true);
                     fileChooser.setFileHidingEnabled(false);
-                    fileChooser.setMultiSelectionEnabled(false);
-                    fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+                    fileChooser.setMultiSelectionEnabled(true);
+                    fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
                     fileChooser.setFileFilter(new FileFilter() {
                         @Override
                         public boolean accept(File f) {
@@ -379,12 +872,26 @@ public class Reader {
                         @Override
                         public void actionPerformed(ActionEvent e) {
                             if (JFileChooser.APPROVE_SELECTION.equals(e.getActionCommand())) {
-                                logFile = fileChooser.getSelectedFile();
+                                // several files or a directory are merged
+                                final List<File> files = new ArrayList<>();
+                                for (File file : fileChooser.getSelectedFiles()) {
+                                    if (file.isDirectory()) {
+                                        files.addAll(LogCatFileMerger.listLogFiles(file));
+                                    } else {
+                                        files.add(file);
+                                    }
+                                }
+                                if (files.size() == 1) {
+                                    logFile = files.get(0);
+                                } else if (files.size() > 1) {
+                                    logFiles = files;
+                                }
                             }
                             dialog.dispose();
                         }
                     });
                     final JComboBox<String> formatExample = new JComboBox<>(new String[]{
+                            "detect the format from the log file",
                             "[ 04-25 21:53:28.440  1190: 1190 I/MyTag ]\n"
                                     + "this is message body",
                             "04-25 21:53:28.440  1190  1190 I MyTag: this is message body",
@@ -408,23 +915,23 @@ public class Reader {
                     });
                     formatExample.setEditable(false);
                     final String labelPrefix = "  log file text format:";
-                    final JLabel formatDescription = new JLabel(labelPrefix + " long ");
+                    final JLabel formatDescription = new JLabel(labelPrefix + " auto ");
                     formatExample.addItemListener(new ItemListener() {
                         @Override
                         public void itemStateChanged(ItemEvent e) {
                             if (e.getStateChange() == ItemEvent.SELECTED) {
                                 switch (formatExample.getSelectedIndex()) {
-                                    case 0:
+                                    case 1:
                                         formatDescription.setText(labelPrefix + " long ");
                                         break;
-                                    case 1:
+                                    case 2:
                                         formatDescription.setText(labelPrefix + " threadtime ");
                                         break;
-                                    case 2:
+                                    case 3:
                                         formatDescription.setText(labelPrefix + " javacustom ");
                                         break;
                                     default:
-                                        formatDescription.setText(labelPrefix + " long ");
+                                        formatDescription.setText(labelPrefix + " auto ");
                                         break;
                                 }
                             }
@@ -434,7 +941,7 @@ public class Reader {
                     bottom.add(formatDescription, BorderLayout.WEST);
                     bottom.add(formatExample, BorderLayout.CENTER);
                     JPanel panel = new JPanel(new BorderLayout());
-                    panel.add(new JLabel("  which log text file would you want to open: "), BorderLayout.NORTH);
+                    panel.add(new JLabel("  which log text files would you want to open: "), BorderLayout.NORTH);
                     panel.add(fileChooser, BorderLayout.CENTER);
                     panel.add(bottom, BorderLayout.SOUTH);
                     dialog.setContentPane(panel);
@@ -447,14 +954,48 @@ public class Reader {
                     dialog.setVisible(true);
                     switch (formatExample.getSelectedIndex()) {
                         case 1:
-                            parser = new LogCatMessageParser2();
+                            parser = new LogCatMessageParser();
                             break;
                         case 2:
+                            parser = new LogCatMessageParser2();
+                            break;
+                        case 3:
                             parser = new LogCatMessageParser3();
                             break;
                     }
                 }
-                new Reader().main(logFile, parser);
+                // the merged files may be of different formats, each is detected on its own
+                List<LogCatMessageParser> parsers = null;
+                if (parser == null && logFiles != null) {
+                    parsers = new ArrayList<>();
+                    for (File file : logFiles) {
+                        final LogCatMessageParser detected = detectParser(file);
+                        parsers.add(detected != null ? detected : new LogCatMessageParser());
+                    }
+                    parser = parsers.get(0);
+                }
+                if (parser == null) {
+                    parser = logFile != null ? detectParser(logFile) : null;
+                    if (parser == null) {
+                        parser = new LogCatMessageParser(); //default: -v long
+                    }
+                }
+                final Reader reader = new Reader();
+                reader.setTextIndex(textIndexed);
+                if ("direct".equals(storage) || "mapped".equals(storage)) {
+                    reader.setOffHeapStorage(storage);
+                }
+                if (logStream != null) {
+                    reader.main(logStream, logStreamName, parser);
+                } else if (logFiles != null && parsers != null) {
+                    reader.main(logFiles, parsers, parser);
+                } else if (logFiles != null) {
+                    reader.main(logFiles, parser);
+                } else {
+                    reader.setLazyText(lazy);
+                    reader.setUseIndex(!noIndex);
+                    reader.main(logFile, parser, follow);
+                }
             }
         });
     }
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.ui;
+
+import java.util.Arrays;
+
+/**
+ * The sorted model rows of a view, in a growable array of ints instead of a list of boxed
+ * Integers. The rows of a view showing all rows, 0, 1, 2 and on, are kept as their number
+ * alone, without an array, until a row out of the sequence is added.
+ * <p/>
+ * A list is changed by one thread, the view is given a copy of the rows checked on the filter
+ * thread, see {@link #copy()}. Rows are only ever added, so a copy shares the array of the list
+ * and sees only the rows below its size, and it copies the array the first time a row is added
+ * to it, so the rows are shown as they are checked without copying them each time.
+ */
+final class RowList {
+    /** the rows, or null while the rows are all rows below the size */
+    private int[] rows;
+    private int size;
+    /**
+     * whether the array is shared with the list this one is a copy of, which may still add
+     * rows past the size of this one
+     */
+    private boolean shared;
+
+    RowList() {
+    }
+
+    private RowList(int[] rows, int size) {
+        this.rows = rows;
+        this.size = size;
+        this.shared = rows != null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return rows == null ? index : rows[index];
+    }
+
+    /**
+     * Add a row greater than all rows of the list.
+     */
+    void add(int row) {
+        if (rows == null && row == size) {
+            ++size;
+            return;
+        }
+        ensureCapacity(size + 1);
+        rows[size++] = row;
+    }
+
+    /**
+     * Add the rows in [from, to), all greater than the rows of the list.
+     */
+    void addRange(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        if (rows == null && from == size) {
+            size = to;
+            return;
+        }
+        ensureCapacity(size + to - from);
+        for (int row = from; row < to; ++row) {
+            rows[size++] = row;
+        }
+    }
+
+    /**
+     * Add the first count rows of the array, sorted and all greater than the rows of the list.
+     */
+    void addAll(int[] values, int count) {
+        if (count <= 0) {
+            return;
+        }
+        // sorted rows of the same number as the rows between the first and the last are those rows
+        if (rows == null && values[0] == size && values[count - 1] == size + count - 1) {
+            size += count;
+            return;
+        }
+        ensureCapacity(size + count);
+        System.arraycopy(values, 0, rows, size, count);
+        size += count;
+    }
+
+    void addAll(RowList other) {
+        if (other.rows == null) {
+            addRange(0, other.size);
+        } else {
+            addAll(other.rows, other.size);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (rows == null) {
+            rows = new int[Math.max(16, capacity)];
+            for (int i = 0; i < size; ++i) {
+                rows[i] = i;
+            }
+        } else if (shared || capacity > rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(capacity, rows.length + (rows.length >> 1)));
+            shared = false;
+        }
+    }
+
+    /**
+     * @return the index of the row, or (-(insertion point) - 1) if it's not in the list,
+     * like {@link Arrays#binarySearch(int[], int)}
+     */
+    int binarySearch(int row) {
+        if (rows == null) {
+            return row < 0 ? -1 : row < size ? row : -size - 1;
+        }
+        return Arrays.binarySearch(rows, 0, size, row);
+    }
+
+    /**
+     * @return a list of the same rows, which is not changed by adding rows to this one,
+     * without copying the rows
+     */
+    RowList copy() {
+        return new RowList(rows, size);
+    }
+
+    int[] toArray() {
+        if (rows == null) {
+            final int[] values = new int[size];
+            for (int i = 0; i < size; ++i) {
+                values[i] = i;
+            }
+            return values;
+        }
+        return Arrays.copyOf(rows, size);
+    }
+
+    /**
+     * @return about the bytes of the heap the rows take
+     */
+    long getBytes() {
+        return rows == null ? 0L : 4L * rows.length;
+    }
+}
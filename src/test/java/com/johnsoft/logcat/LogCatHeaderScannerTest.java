@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache license, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the license for the specific language governing permissions and
+ * limitations under the license.
+ */
+package com.johnsoft.logcat;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The scanner gives the same fields as the header regex of {@link LogCatMessageParser2} and
+ * {@link LogCatMessageParser3}, over the lines of the example logs and the lines made
+ * from them by changing a char here and there.
+ */
+public class LogCatHeaderScannerTest {
+    private static final File EXAMPLES = new File("examples");
+    /** the chars the header is made of, and the ones the regex treats on its own */
+    private static final String MUTATION_CHARS = " \t\r\n\u000B\f\u0085\u2028:-.[]0123456789VDIWEAFx";
+    private static final int MUTATIONS_PER_LINE = 8;
+
+    @Test
+    public void threadTimeOfExamples() throws IOException {
+        final LogCatHeaderScanner scanner = new LogCatHeaderScanner();
+        int matches = 0;
+        for (String line : readExamples()) {
+            matches += checkThreadTime(scanner, line) ? 1 : 0;
+        }
+        assertTrue("no threadtime header in the examples", matches > 0);
+    }
+
+    @Test
+    public void javaCustomOfExamples() throws IOException {
+        final LogCatHeaderScanner scanner = new LogCatHeaderScanner();
+        int matches = 0;
+        for (String line : readExamples()) {
+            matches += checkJavaCustom(scanner, line) ? 1 : 0;
+        }
+        assertTrue("no javacustom header in the examples", matches > 0);
+    }
+
+    @Test
+    public void mutatedExamples() throws IOException {
+        final LogCatHeaderScanner scanner = new LogCatHeaderScanner();
+        final Random random = new Random(20161104L);
+        for (String line : readExamples()) {
+            for (int k = 0; k < MUTATIONS_PER_LINE; ++k) {
+                final String mutated = mutate(line, random);
+                checkThreadTime(scanner, mutated);
+                checkJavaCustom(scanner, mutated);
+            }
+        }
+    }
+
+    /**
+     * @return true if the scanner took the line as a header
+     */
+    private static boolean checkThreadTime(LogCatHeaderScanner scanner, String line) {
+        final int result = scanner.scanThreadTime(line);
+        final Matcher matcher = LogCatMessageParser2.sLogHeaderPattern.matcher(line);
+        if (result == LogCatHeaderScanner.NO_MATCH) {
+            assertFalse(line, matcher.matches());
+        } else if (result == LogCatHeaderScanner.MATCH) {
+            assertTrue(line, matcher.matches());
+            assertEquals(line, matcher.group(1), line.substring(scanner.timeStart, scanner.timeEnd));
+            assertEquals(line, matcher.group(2), line.substring(scanner.pidStart, scanner.pidEnd));
+            assertEquals(line, matcher.group(3), line.substring(scanner.tidStart, scanner.tidEnd));
+            assertEquals(line, matcher.group(4).charAt(0), scanner.level);
+            assertEquals(line, matcher.group(5).trim(), line.substring(scanner.tagStart, scanner.tagEnd));
+            assertEquals(line, matcher.group(6), line.substring(scanner.messageStart));
+        }
+        return result == LogCatHeaderScanner.MATCH;
+    }
+
+    private static boolean checkJavaCustom(LogCatHeaderScanner scanner, String line) {
+        final int result = scanner.scanJavaCustom(line);
+        final Matcher matcher = LogCatMessageParser3.sLogHeaderPattern.matcher(line);
+        if (result == LogCatHeaderScanner.NO_MATCH) {
+            assertFalse(line, matcher.matches());
+        } else if (result == LogCatHeaderScanner.MATCH) {
+            assertTrue(line, matcher.matches());
+            assertEquals(line, matcher.group(1), line.substring(scanner.timeStart, scanner.timeEnd));
+            assertEquals(line, matcher.group(2), line.substring(scanner.pidStart, scanner.pidEnd));
+            assertEquals(line, matcher.group(3), line.substring(scanner.tidStart, scanner.tidEnd));
+            assertEquals(line, matcher.group(4).charAt(0), scanner.level);
+            assertEquals(line, matcher.group(5), line.substring(scanner.tagStart, scanner.tagEnd));
+            assertEquals(line, matcher.group(6), line.substring(scanner.uidStart, scanner.uidEnd));
+            assertEquals(line, matcher.group(7), line.substring(scanner.threadStart, scanner.threadEnd));
+            assertEquals(line, matcher.group(8), line.substring(scanner.messageStart));
+        }
+        return result == LogCatHeaderScanner.MATCH;
+    }
+
+    /**
+     * Replace, insert or delete a char in the first 80 chars, where the header is.
+     */
+    private static String mutate(String line, Random random) {
+        final int position = random.nextInt(Math.min(line.length(), 80) + 1);
+        final char c = MUTATION_CHARS.charAt(random.nextInt(MUTATION_CHARS.length()));
+        final StringBuilder sb = new StringBuilder(line);
+        switch (random.nextInt(3)) {
+            case 0:
+                if (position < sb.length()) {
+                    sb.setCharAt(position, c);
+                }
+                break;
+            case 1:
+                sb.insert(position, c);
+                break;
+            default:
+                if (position < sb.length()) {
+                    sb.deleteCharAt(position);
+                }
+                break;
+        }
+        return sb.toString();
+    }
+
+    private static List<String> readExamples() throws IOException {
+        final File[] files = EXAMPLES.listFiles();
+        assertTrue("no examples in " + EXAMPLES.getAbsolutePath(), files != null);
+        final List<String> lines = new ArrayList<>();
+        for (File file : files) {
+            if (!file.getName().endsWith(".log")) {
+                continue;
+            }
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+        }
+        assertFalse("no lines in the examples", lines.isEmpty());
+        return lines;
+    }
+}